@@ -0,0 +1,41 @@
+package io.github.kamarias.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程竞争同一把锁，延迟包含等待时间，线程数通过 -t 调整
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/28 10:45
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class ContendedLockBenchmark {
+
+    private static final String KEY = "benchmark:contended";
+
+    private static final Duration MAX_WAIT = Duration.ofSeconds(10);
+
+    @Benchmark
+    public boolean lockUnlock(LockBackendState state) {
+        if (!state.lock.tryLock(KEY, LockBackendState.LEASE_MILLIS, MAX_WAIT)) {
+            return false;
+        }
+        return state.lock.releaseLock(KEY);
+    }
+
+}
@@ -0,0 +1,96 @@
+package io.github.kamarias.benchmark;
+
+import io.github.kamarias.lock.DistributedLock;
+import io.github.kamarias.lock.InMemoryDistributedLock;
+import io.github.kamarias.lock.RedisDistributedLock;
+import io.github.kamarias.lock.ZooKeeperConnectionManager;
+import io.github.kamarias.lock.ZooKeeperDistributedLock;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 基准测试使用的锁实现
+ * redis 连接本地 redis-server，地址通过 -Dredis.host、-Dredis.port 指定（fork 的进程需要用 -jvmArgsAppend 传入）；
+ * zookeeper 使用进程内的 TestingServer
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/28 10:10
+ */
+@State(Scope.Benchmark)
+public class LockBackendState {
+
+    /**
+     * 锁的过期时间
+     */
+    static final long LEASE_MILLIS = 30 * 1000L;
+
+    @Param({"redis", "zookeeper", "in-memory"})
+    public String backend;
+
+    DistributedLock lock;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private TestingServer zooKeeperServer;
+
+    private ZooKeeperConnectionManager connectionManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        switch (backend) {
+            case "redis":
+                lock = new RedisDistributedLock(redisTemplate());
+                break;
+            case "zookeeper":
+                zooKeeperServer = new TestingServer(true);
+                connectionManager = new ZooKeeperConnectionManager(zooKeeperServer.getConnectString(), 30 * 1000);
+                if (!connectionManager.awaitConnected(10 * 1000L)) {
+                    throw new IllegalStateException("zookeeper testing server is not connected");
+                }
+                lock = new ZooKeeperDistributedLock(connectionManager);
+                break;
+            case "in-memory":
+                lock = new InMemoryDistributedLock();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown lock backend: " + backend);
+        }
+    }
+
+    /**
+     * 连接本地 redis-server
+     */
+    StringRedisTemplate redisTemplate() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        return new StringRedisTemplate(connectionFactory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (lock instanceof DisposableBean) {
+            ((DisposableBean) lock).destroy();
+        }
+        if (connectionManager != null) {
+            connectionManager.destroy();
+        }
+        if (zooKeeperServer != null) {
+            zooKeeperServer.close();
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+}
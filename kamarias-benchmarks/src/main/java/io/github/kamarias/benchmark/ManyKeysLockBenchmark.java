@@ -0,0 +1,63 @@
+package io.github.kamarias.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程在大量锁名上随机加锁，偶尔冲突，衡量整体吞吐
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/28 11:00
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class ManyKeysLockBenchmark {
+
+    private static final Duration MAX_WAIT = Duration.ofSeconds(10);
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+
+        @Param({"10000"})
+        public int keyCount;
+
+        String[] keys;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            keys = new String[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = "benchmark:many:" + i;
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean lockUnlock(LockBackendState state, Keys keys) {
+        String key = keys.keys[ThreadLocalRandom.current().nextInt(keys.keys.length)];
+        if (!state.lock.tryLock(key, LockBackendState.LEASE_MILLIS, MAX_WAIT)) {
+            return false;
+        }
+        return state.lock.releaseLock(key);
+    }
+
+}
@@ -0,0 +1,81 @@
+package io.github.kamarias.benchmark;
+
+import io.github.kamarias.lock.LockHandle;
+import io.github.kamarias.lock.LockWatchdog;
+import io.github.kamarias.lock.RedisDistributedLock;
+import io.github.kamarias.lock.RedisRenewalProbe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis 看门狗一次批量续期的开销，按批次中的锁数量比较
+ * 锁使用固定过期时间获取，后台看门狗不会同时续期；续期方法通过同包的 {@link RedisRenewalProbe} 调用；
+ * zookeeper 由会话心跳维持，不需要续期
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/28 11:20
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenewalBenchmark {
+
+    @Param({"1", "100", "500"})
+    public int leaseCount;
+
+    private final LockBackendState backend = new LockBackendState();
+
+    private RedisDistributedLock lock;
+
+    private final List<LockHandle> handles = new ArrayList<>();
+
+    private final List<LockWatchdog.Lease> leases = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lock = new RedisDistributedLock(backend.redisTemplate());
+        for (int i = 0; i < leaseCount; i++) {
+            // 固定过期时间，只由基准测试续期
+            LockHandle handle = lock.acquire("benchmark:renewal:" + i, LockBackendState.LEASE_MILLIS, Duration.ZERO);
+            if (handle == null) {
+                throw new IllegalStateException("acquire benchmark lock failed: " + i);
+            }
+            handles.add(handle);
+            leases.add(new LockWatchdog.Lease(handle.getKey(), handle.getOwner()));
+        }
+    }
+
+    @Benchmark
+    public Object renewBatch() {
+        return RedisRenewalProbe.renew(lock, leases, LockBackendState.LEASE_MILLIS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (LockHandle handle : handles) {
+            handle.close();
+        }
+        lock.destroy();
+        backend.tearDown();
+    }
+
+}
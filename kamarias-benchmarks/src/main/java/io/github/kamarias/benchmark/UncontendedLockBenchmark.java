@@ -0,0 +1,41 @@
+package io.github.kamarias.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无竞争的加锁、解锁，每个线程使用自己的锁名，衡量单次获取的固定开销
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/28 10:30
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UncontendedLockBenchmark {
+
+    @State(Scope.Thread)
+    public static class ThreadKey {
+
+        final String key = "benchmark:uncontended:" + UUID.randomUUID();
+    }
+
+    @Benchmark
+    public boolean lockUnlock(LockBackendState state, ThreadKey threadKey) {
+        state.lock.lock(threadKey.key, LockBackendState.LEASE_MILLIS, 0, 0L);
+        return state.lock.releaseLock(threadKey.key);
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.github.kamarias.lock;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基准测试调用 redis 批量续期的入口
+ * 与锁实现同包，直接调用包内可见的续期方法，不经过反射
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/28 11:20
+ */
+public final class RedisRenewalProbe {
+
+    private RedisRenewalProbe() {
+    }
+
+    /**
+     * 批量续期一次
+     *
+     * @param lock        redis 锁
+     * @param leases      需要续期的锁
+     * @param leaseMillis 过期时间
+     * @return 已不再持有的锁
+     */
+    public static Collection<LockWatchdog.Lease> renew(RedisDistributedLock lock, List<LockWatchdog.Lease> leases, long leaseMillis) {
+        return lock.renew(leases, leaseMillis);
+    }
+
+}
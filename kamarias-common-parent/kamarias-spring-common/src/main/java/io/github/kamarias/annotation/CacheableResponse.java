@@ -25,4 +25,45 @@ public @interface CacheableResponse {
      */
     TimeUnit unit() default TimeUnit.MINUTES;
 
+    /**
+     * 软过期时间，单位同 unit，0 表示不使用；expireTime 为硬过期时间
+     * 超过软过期时间后仍直接返回旧数据，同时由一个节点在 taskThreadExecutor 中后台刷新，
+     * 软、硬过期之间有访问的热点数据会在硬过期之前刷新，调用方不再等待方法执行
+     */
+    int softExpireTime() default 0;
+
+    /**
+     * 过期时间随机缩短的最大比例，取值 [0, 1)，0 表示不缩短
+     * 如 0.1 表示在过期时间的 90%~100% 之间随机，同时写入的缓存（如启动预热）不会同时过期
+     */
+    double ttlJitter() default 0;
+
+    /**
+     * 概率提前刷新系数（XFetch 的 beta），0 表示不提前，1 为常用值，越大越早
+     * 按记录的回源耗时和剩余过期时间，在过期前以逐渐增大的概率触发后台刷新
+     */
+    double earlyRefreshBeta() default 0;
+
+    /**
+     * 未命中时是否加分布式锁回源，开启后多个节点同时未命中只有一个节点执行方法
+     * 同一节点内的并发未命中总是只执行一次；命中时不加锁
+     */
+    boolean distributedGuard() default true;
+
+    /**
+     * 本地缓存的最大条数，0 表示不使用本地缓存；需要配置 cacheable.near-cache.enabled=true
+     * 本地命中时不访问 redis，也不解析 json，返回的对象会被多个请求共享，不应修改
+     */
+    long localMaxSize() default 0;
+
+    /**
+     * 本地缓存时间，应小于 redis 缓存时间；其他节点更新缓存时会通知淘汰，通知丢失时最多过期这么久
+     */
+    int localExpireTime() default 10;
+
+    /**
+     * 本地缓存单位
+     */
+    TimeUnit localUnit() default TimeUnit.SECONDS;
+
 }
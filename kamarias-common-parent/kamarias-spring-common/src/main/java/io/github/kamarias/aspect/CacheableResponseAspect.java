@@ -3,6 +3,7 @@ package io.github.kamarias.aspect;
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.JSONObject;
 import io.github.kamarias.annotation.CacheableResponse;
+import io.github.kamarias.cache.NearCache;
 import io.github.kamarias.cache.RedisCache;
 import io.github.kamarias.lock.DistributedLock;
 import io.github.kamarias.utils.encrypt.Md5Utils;
@@ -14,11 +15,23 @@ import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 缓存注解切面
@@ -35,16 +48,59 @@ public class CacheableResponseAspect {
 
     private final String ENV_DEV = "dev";
 
+    /**
+     * 带过期信息的缓存数据格式：@软过期时间点,回源耗时,硬过期时间点@数据，json 不会以 @ 开头
+     */
+    private static final char ENVELOPE = '@';
+
+    /**
+     * 未命中的标记，方法返回 null 时缓存的 "null" 也算命中
+     */
+    private static final Object MISS = new Object();
+
+    /**
+     * 本地缓存中代替 null 的值，Caffeine 不能保存 null
+     */
+    private static final Object NULL_VALUE = new Object();
+
     private final RedisCache redisCache;
 
     private final DistributedLock distributedLock;
 
+    /**
+     * 本地缓存，为空时只使用 redis
+     */
+    private final NearCache nearCache;
+
+    /**
+     * 当前节点正在回源的缓存键
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> loadings = new ConcurrentHashMap<>();
+
+    /**
+     * 当前节点正在后台刷新的缓存键
+     */
+    private final Set<String> refreshings = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 后台刷新线程池
+     */
+    @Autowired(required = false)
+    @Qualifier("taskThreadExecutor")
+    private Executor refreshExecutor;
+
     @Value("${spring.application.name:app}")
     private String APP_NAME;
 
     public CacheableResponseAspect(RedisCache redisCache, DistributedLock distributedLock) {
+        this(redisCache, distributedLock, null);
+    }
+
+    @Autowired
+    public CacheableResponseAspect(RedisCache redisCache, DistributedLock distributedLock, @Nullable NearCache nearCache) {
         this.redisCache = redisCache;
         this.distributedLock = distributedLock;
+        this.nearCache = nearCache;
     }
 
     @Pointcut("@annotation(io.github.kamarias.annotation.CacheableResponse)")
@@ -63,37 +119,214 @@ public class CacheableResponseAspect {
         // 参数
         final Object[] args = pjp.getArgs();
         final String cacheKey = this.genCacheKey(args, methodFullName);
-        String lockKey = cacheKey + ":cacheLock";
+        CacheableResponse annotation = method.getAnnotation(CacheableResponse.class);
+        // 本地缓存区域按方法的完整签名区分，避免不同包下的同名类、重载方法共用一个区域；为空表示不使用本地缓存
+        final String region = this.nearCache != null && annotation.localMaxSize() > 0 ? method.toString() : null;
+        if (region != null) {
+            Object cached = this.nearCache.get(region, cacheKey);
+            if (cached != null) {
+                // 本地命中，不访问 redis
+                LOGGER.debug("从本地缓存获取到接口数据，key={}", cacheKey);
+                return cached == NULL_VALUE ? null : cached;
+            }
+        }
+        // 命中时不加锁
+        Object cached = this.getCache(pjp, cacheKey, method, methodFullName, annotation, region);
+        if (cached != MISS) {
+            return cached;
+        }
+        // 未命中时同一节点只有一个线程回源，其他线程等待它的结果
+        CompletableFuture<Object> loading = new CompletableFuture<>();
+        CompletableFuture<Object> existing = this.loadings.putIfAbsent(cacheKey, loading);
+        if (existing != null) {
+            LOGGER.debug("接口{}正在回源，等待结果，key={}", methodFullName, cacheKey);
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
         try {
-            distributedLock.lock(lockKey);
-            // 返回类型
-            final Class<?> returnClass = Class.forName(method.getGenericReturnType().getTypeName());
-            final String cacheDataString = this.redisCache.getCacheObject(cacheKey);
-            if (StringUtils.isNotBlank(cacheDataString) && returnClass != null) {
-                // 返回缓存数据
-                LOGGER.info("从redis获取到接口数据：{}，key={}", cacheDataString, cacheKey);
-                return JSONObject.parseObject(cacheDataString, returnClass);
-            }else {
-                LOGGER.info("没有从redis获取到接口数据。开始执行接口{}逻辑...", methodFullName);
+            Object result = this.load(pjp, cacheKey, method, methodFullName, annotation, region);
+            loading.complete(result);
+            return result;
+        } catch (Throwable e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loadings.remove(cacheKey, loading);
+        }
+    }
+
+    /**
+     * 读取redis缓存，超过软过期时间或概率提前过期时返回旧数据并触发后台刷新
+     *
+     * @return 未命中返回 {@link #MISS}
+     */
+    private Object getCache(ProceedingJoinPoint pjp, String cacheKey, Method method, String methodFullName,
+                            CacheableResponse annotation, String region) {
+        String cacheDataString = this.redisCache.getCacheObject(cacheKey);
+        if (StringUtils.isBlank(cacheDataString)) {
+            return MISS;
+        }
+        if (cacheDataString.charAt(0) == ENVELOPE) {
+            int index = cacheDataString.indexOf(ENVELOPE, 1);
+            String header = cacheDataString.substring(1, index);
+            cacheDataString = cacheDataString.substring(index + 1);
+            if (this.shouldRefresh(header, annotation)) {
+                this.refreshAsync(pjp, cacheKey, header, methodFullName, annotation, region);
+            }
+        }
+        // 返回缓存数据
+        LOGGER.debug("从redis获取到接口数据：{}，key={}", cacheDataString, cacheKey);
+        Object cached = JSONObject.parseObject(cacheDataString, method.getReturnType());
+        if (region != null) {
+            this.nearCache.put(region, cacheKey, cached == null ? NULL_VALUE : cached, annotation.localMaxSize(), annotation.localExpireTime(), annotation.localUnit());
+        }
+        return cached;
+    }
+
+    /**
+     * 是否需要刷新：超过软过期时间，或按 XFetch 概率提前刷新
+     * 提前量为 回源耗时 * beta * -ln(随机数)，离硬过期越近、回源越慢，越可能提前刷新，各节点的刷新时间点自然错开
+     */
+    private boolean shouldRefresh(String header, CacheableResponse annotation) {
+        String[] fields = StringUtils.split(header, ',');
+        long now = System.currentTimeMillis();
+        long softExpireAt = Long.parseLong(fields[0]);
+        if (softExpireAt > 0 && now >= softExpireAt) {
+            return true;
+        }
+        if (fields.length < 3 || annotation.earlyRefreshBeta() <= 0) {
+            return false;
+        }
+        long delta = Long.parseLong(fields[1]);
+        long expireAt = Long.parseLong(fields[2]);
+        // 随机数取 (0, 1]，避免 ln(0)
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return now - delta * annotation.earlyRefreshBeta() * Math.log(random) >= expireAt;
+    }
+
+    /**
+     * 后台刷新，同一节点同一缓存键只提交一次，多个节点之间由分布式锁保证只有一个刷新
+     */
+    private void refreshAsync(ProceedingJoinPoint pjp, String cacheKey, String header, String methodFullName,
+                              CacheableResponse annotation, String region) {
+        if (!this.refreshings.add(cacheKey)) {
+            return;
+        }
+        Runnable task = () -> {
+            String refreshLockKey = cacheKey + ":cacheRefresh";
+            boolean locked = false;
+            try {
+                locked = distributedLock.tryLock(refreshLockKey, -1L, Duration.ZERO);
+                if (!locked || !this.isUnchanged(cacheKey, header)) {
+                    // 其他节点正在刷新或已经刷新
+                    return;
+                }
+                LOGGER.info("接口{}缓存即将过期，后台刷新，key={}", methodFullName, cacheKey);
                 final long start = System.currentTimeMillis();
                 Object proceed = pjp.proceed();
-                LOGGER.info("接口{}执行完成，耗时{}ms", methodFullName, System.currentTimeMillis() - start);
-                // 写入缓存
-                final String response = JSON.toJSONString(proceed);
-                CacheableResponse annotation = method.getAnnotation(CacheableResponse.class);
-                this.redisCache.setCacheObject(cacheKey, response, annotation.expireTime(), annotation.unit());
-                LOGGER.info("已将接口{}返回数据放入redis。data={}，key={}", methodFullName, response, cacheKey);
-                return proceed;
+                final long cost = System.currentTimeMillis() - start;
+                LOGGER.info("接口{}后台刷新完成，耗时{}ms", methodFullName, cost);
+                this.putCache(cacheKey, proceed, cost, methodFullName, annotation, region);
+            } catch (Throwable e) {
+                // 刷新失败时继续返回旧数据，直到硬过期
+                LOGGER.error("接口{}后台刷新缓存失败，key={}", methodFullName, cacheKey, e);
+            } finally {
+                if (locked) {
+                    distributedLock.releaseLock(refreshLockKey);
+                }
+                this.refreshings.remove(cacheKey);
+            }
+        };
+        try {
+            if (this.refreshExecutor != null) {
+                this.refreshExecutor.execute(task);
+            } else {
+                CompletableFuture.runAsync(task);
+            }
+        } catch (RejectedExecutionException e) {
+            this.refreshings.remove(cacheKey);
+            LOGGER.warn("接口{}后台刷新任务被拒绝，key={}", methodFullName, cacheKey);
+        }
+    }
+
+    /**
+     * 缓存是否仍是触发刷新时读到的那一份，拿到刷新锁后再确认一次，其他节点已经刷新时不再重复刷新
+     */
+    private boolean isUnchanged(String cacheKey, String header) {
+        String cacheDataString = this.redisCache.getCacheObject(cacheKey);
+        if (StringUtils.isBlank(cacheDataString)) {
+            // 已经硬过期
+            return true;
+        }
+        return cacheDataString.startsWith(ENVELOPE + header + ENVELOPE);
+    }
+
+    /**
+     * 写入redis缓存，redis 的过期时间为硬过期时间，按 ttlJitter 随机缩短；
+     * 设置了软过期时间或提前刷新时带上软过期时间点、回源耗时和硬过期时间点
+     */
+    private void putCache(String cacheKey, Object proceed, long cost, String methodFullName, CacheableResponse annotation, String region) {
+        String response = JSON.toJSONString(proceed);
+        long expireMillis = annotation.unit().toMillis(annotation.expireTime());
+        long ttl = RedisCache.jitter(expireMillis, annotation.ttlJitter());
+        if (annotation.softExpireTime() > 0 || annotation.earlyRefreshBeta() > 0) {
+            long now = System.currentTimeMillis();
+            long softExpireAt = 0L;
+            if (annotation.softExpireTime() > 0) {
+                // 软过期时间按硬过期时间相同的比例缩短
+                long softMillis = annotation.unit().toMillis(annotation.softExpireTime());
+                softExpireAt = now + (expireMillis > 0 ? (long) ((double) softMillis * ttl / expireMillis) : softMillis);
+            }
+            response = ENVELOPE + StringUtils.joinWith(",", softExpireAt, cost, now + ttl) + ENVELOPE + response;
+        }
+        this.redisCache.setCacheObject(cacheKey, response, ttl, TimeUnit.MILLISECONDS);
+        LOGGER.info("已将接口{}返回数据放入redis。data={}，key={}", methodFullName, response, cacheKey);
+        if (region != null) {
+            // 其他节点的本地副本已过时
+            this.nearCache.invalidate(cacheKey);
+            this.nearCache.put(region, cacheKey, proceed == null ? NULL_VALUE : proceed, annotation.localMaxSize(), annotation.localExpireTime(), annotation.localUnit());
+        }
+    }
+
+    /**
+     * 回源并写入缓存，开启分布式保护时先加锁，加锁后再检查一次缓存，多个节点同时未命中时只有一个回源
+     */
+    private Object load(ProceedingJoinPoint pjp, String cacheKey, Method method, String methodFullName,
+                        CacheableResponse annotation, String region) throws Throwable {
+        String lockKey = cacheKey + ":cacheLock";
+        boolean locked = false;
+        try {
+            if (annotation.distributedGuard()) {
+                locked = distributedLock.lock(lockKey);
+                // 等锁期间其他节点可能已经写入
+                Object cached = this.getCache(pjp, cacheKey, method, methodFullName, annotation, region);
+                if (cached != MISS) {
+                    return cached;
+                }
+            }
+            LOGGER.info("没有从redis获取到接口数据。开始执行接口{}逻辑...", methodFullName);
+            final long start = System.currentTimeMillis();
+            Object proceed = pjp.proceed();
+            final long cost = System.currentTimeMillis() - start;
+            LOGGER.info("接口{}执行完成，耗时{}ms", methodFullName, cost);
+            // 写入缓存
+            this.putCache(cacheKey, proceed, cost, methodFullName, annotation, region);
+            return proceed;
+        } finally {
+            if (locked) {
+                distributedLock.releaseLock(lockKey);
             }
-        }finally {
-            distributedLock.releaseLock(lockKey);
         }
     }
 
 
     private String genCacheKey(Object[] args, String methodName) {
-        LOGGER.info(JSON.toJSONString(args));
-        List<String> keys = Arrays.asList(this.APP_NAME, CacheableResponse.class.getSimpleName(), methodName, Md5Utils.getMD5(JSON.toJSONString(args).getBytes()));
+        final String argsJson = JSON.toJSONString(args);
+        LOGGER.debug(argsJson);
+        List<String> keys = Arrays.asList(this.APP_NAME, CacheableResponse.class.getSimpleName(), methodName, Md5Utils.getMD5(argsJson.getBytes()));
         return StringUtils.join(keys, ":");
     }
 
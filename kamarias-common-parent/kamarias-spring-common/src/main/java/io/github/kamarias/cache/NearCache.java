@@ -0,0 +1,156 @@
+package io.github.kamarias.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的近端缓存，放在 redis 缓存之前
+ * 每个区域（一般为一个方法）一个有界的 Caffeine 缓存（W-TinyLFU 淘汰），有自己的过期时间；
+ * 某个节点写入或删除 redis 缓存后通过发布订阅通知其他节点淘汰本地副本
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 14:10
+ */
+public class NearCache implements MessageListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NearCache.class);
+
+    /**
+     * 默认的失效通知频道
+     */
+    public static final String DEFAULT_CHANNEL = "nearCache:invalidate";
+
+    /**
+     * 通知内容中节点标识与缓存键的分隔符
+     */
+    private static final char SEPARATOR = '|';
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final String channel;
+
+    /**
+     * 当前节点标识，忽略自己发出的通知
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ConcurrentHashMap<String, Region> regions = new ConcurrentHashMap<>();
+
+    public NearCache(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, DEFAULT_CHANNEL);
+    }
+
+    public NearCache(StringRedisTemplate stringRedisTemplate, String channel) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.channel = channel;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * 读取本地缓存
+     *
+     * @param region 区域
+     * @param key    缓存键
+     * @return 不存在或已过期返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String region, String key) {
+        Region cache = regions.get(region);
+        return cache == null ? null : (T) cache.cache.getIfPresent(key);
+    }
+
+    /**
+     * 写入本地缓存，区域不存在时按给定的容量和过期时间创建，
+     * 同一区域只能有一种容量和过期时间，不一致时抛出 {@link IllegalStateException}
+     *
+     * @param region     区域
+     * @param key        缓存键
+     * @param value      缓存的值，会被多个调用方共享，不应再修改
+     * @param maxSize    区域的最大条数
+     * @param expireTime 过期时间
+     * @param unit       时间单位
+     */
+    public void put(String region, String key, Object value, long maxSize, long expireTime, TimeUnit unit) {
+        if (value == null) {
+            return;
+        }
+        long expireMillis = unit.toMillis(expireTime);
+        Region cache = regions.computeIfAbsent(region, r -> new Region(maxSize, expireMillis));
+        if (cache.maxSize != maxSize || cache.expireMillis != expireMillis) {
+            throw new IllegalStateException(String.format("本地缓存区域%s已按 maxSize=%d、expire=%dms 创建，不能再按 maxSize=%d、expire=%dms 使用",
+                    region, cache.maxSize, cache.expireMillis, maxSize, expireMillis));
+        }
+        cache.cache.put(key, value);
+    }
+
+    /**
+     * 淘汰本地副本并通知其他节点，redis 中的值被改写或删除后调用
+     *
+     * @param key 缓存键
+     */
+    public void invalidate(String key) {
+        evictLocal(key);
+        try {
+            stringRedisTemplate.convertAndSend(channel, nodeId + SEPARATOR + key);
+        } catch (Exception e) {
+            // 通知失败时其他节点的副本在本地过期时间后失效
+            LOGGER.warn("发布缓存失效通知失败，key={}", key, e);
+        }
+    }
+
+    /**
+     * 只淘汰当前节点的副本
+     *
+     * @param key 缓存键
+     */
+    public void evictLocal(String key) {
+        for (Region cache : regions.values()) {
+            cache.cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(SEPARATOR);
+        if (index < 0 || body.substring(0, index).equals(nodeId)) {
+            return;
+        }
+        evictLocal(body.substring(index + 1));
+    }
+
+    /**
+     * 一个区域的缓存及创建时的容量和过期时间
+     */
+    private static final class Region {
+
+        private final long maxSize;
+
+        private final long expireMillis;
+
+        private final Cache<String, Object> cache;
+
+        private Region(long maxSize, long expireMillis) {
+            this.maxSize = maxSize;
+            this.expireMillis = expireMillis;
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
+}
@@ -6,6 +6,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.*;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -62,6 +63,21 @@ public class RedisCache {
         redisTemplate.opsForValue().set(key, value, timeout, timeUnit);
     }
 
+    /**
+     * 随机缩短过期时间，同时写入的缓存不会同时过期
+     *
+     * @param timeoutMillis 过期时间，单位毫秒
+     * @param jitter        随机缩短的最大比例，取值 [0, 1)，如 0.1 表示在 90%~100% 之间随机
+     * @return 缩短后的过期时间，单位毫秒，不小于 1
+     */
+    public static long jitter(final long timeoutMillis, final double jitter) {
+        if (jitter <= 0 || timeoutMillis <= 1) {
+            return timeoutMillis;
+        }
+        long spread = (long) (timeoutMillis * Math.min(jitter, 1.0));
+        return Math.max(1L, timeoutMillis - ThreadLocalRandom.current().nextLong(spread + 1));
+    }
+
     /**
      * 获取过期时间
      *
@@ -0,0 +1,38 @@
+package io.github.kamarias.config.redis;
+
+import io.github.kamarias.cache.NearCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * 近端缓存配置，订阅其他节点的缓存失效通知
+ * 默认不开启，配置 cacheable.near-cache.enabled=true 后 {@code @CacheableResponse(localMaxSize = ...)} 才会使用本地缓存
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 14:40
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = NearCacheConfig.PREFIX, name = "enabled", havingValue = "true")
+public class NearCacheConfig {
+
+    public final static String PREFIX = "cacheable.near-cache";
+
+    @Bean
+    @ConditionalOnMissingBean(NearCache.class)
+    public NearCache nearCache(StringRedisTemplate stringRedisTemplate) {
+        return new NearCache(stringRedisTemplate);
+    }
+
+    @Bean
+    public RedisMessageListenerContainer nearCacheListenerContainer(StringRedisTemplate stringRedisTemplate, NearCache nearCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(stringRedisTemplate.getRequiredConnectionFactory());
+        container.addMessageListener(nearCache, new ChannelTopic(nearCache.getChannel()));
+        return container;
+    }
+
+}
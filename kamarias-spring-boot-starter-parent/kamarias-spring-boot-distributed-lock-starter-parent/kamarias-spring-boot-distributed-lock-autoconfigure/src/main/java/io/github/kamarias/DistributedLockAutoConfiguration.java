@@ -2,12 +2,34 @@ package io.github.kamarias;
 
 
 import io.github.kamarias.lock.DistributedLock;
+import io.github.kamarias.lock.DistributedSemaphore;
+import io.github.kamarias.lock.HandleDistributedLock;
+import io.github.kamarias.lock.InMemoryDistributedLock;
+import io.github.kamarias.lock.LeaderElection;
+import io.github.kamarias.lock.LockObserver;
+import io.github.kamarias.lock.OptimisticStore;
+import io.github.kamarias.lock.RedLockDistributedLock;
 import io.github.kamarias.lock.RedisDistributedLock;
+import io.github.kamarias.lock.RedisDistributedSemaphore;
+import io.github.kamarias.lock.RedisLockReleaseSubscriber;
+import io.github.kamarias.lock.RedisOptimisticStore;
+import io.github.kamarias.lock.RedisShardMembership;
+import io.github.kamarias.lock.ShardCoordinator;
+import io.github.kamarias.lock.ShardMembership;
+import io.github.kamarias.lock.ZooKeeperConnectionManager;
+import io.github.kamarias.lock.ZooKeeperShardMembership;
+import io.github.kamarias.properties.DistributedLockProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 /**
  * 分布式锁自动配置默认使用Redis作为分布式锁
@@ -16,8 +38,33 @@ import org.springframework.data.redis.core.StringRedisTemplate;
  */
 @Configuration(proxyBeanMethods = false)
 @ConditionalOnClass(DistributedLock.class)
+@Import(DistributedLockProperties.class)
 public class DistributedLockAutoConfiguration {
 
+    /**
+     * 开启 distributed.lock.in-memory 后使用进程内的锁，不需要 redis
+     */
+    @Bean
+    @ConditionalOnMissingBean(DistributedLock.class)
+    @ConditionalOnProperty(prefix = DistributedLockProperties.PREFIX, name = "in-memory", havingValue = "true")
+    public HandleDistributedLock inMemoryDistributedLock() {
+        return new InMemoryDistributedLock();
+    }
+
+    /**
+     * 开启 distributed.lock.redlock.enabled 后使用多个独立 Redis 节点的多数派锁
+     */
+    @Bean
+    @ConditionalOnMissingBean(DistributedLock.class)
+    @ConditionalOnProperty(prefix = DistributedLockProperties.PREFIX, name = "redlock.enabled", havingValue = "true")
+    public HandleDistributedLock redLockDistributedLock(DistributedLockProperties properties,
+                                                        ObjectProvider<LockObserver> lockObserver) {
+        DistributedLockProperties.Redlock redlock = properties.getRedlock();
+        RedLockDistributedLock distributedLock = RedLockDistributedLock.create(redlock.getNodes(), redlock.getNodeTimeout(), redlock.getClockDriftFactor());
+        lockObserver.ifAvailable(distributedLock::setLockObserver);
+        return distributedLock;
+    }
+
     /**
      * 默认使用
      * 使用redis作为分布式锁 使用前需要保证已经注入 redisTemplate 的 bean 实例
@@ -25,10 +72,103 @@ public class DistributedLockAutoConfiguration {
     @Bean
     @ConditionalOnMissingBean(DistributedLock.class)
     @ConditionalOnClass(RedisDistributedLock.class)
-    public DistributedLock redisDistributedLock(StringRedisTemplate redisTemplate) {
-        return new RedisDistributedLock(redisTemplate);
+    public HandleDistributedLock redisDistributedLock(StringRedisTemplate redisTemplate,
+                                                      ObjectProvider<RedisLockReleaseSubscriber> releaseSubscriber,
+                                                      DistributedLockProperties properties,
+                                                      ObjectProvider<LockObserver> lockObserver) {
+        RedisDistributedLock distributedLock = new RedisDistributedLock(redisTemplate, releaseSubscriber.getIfAvailable());
+        lockObserver.ifAvailable(distributedLock::setLockObserver);
+        distributedLock.setFencingTokens(properties.getRedis().isFencingTokens());
+        if (properties.getRedis().isLocalCoalescing()) {
+            distributedLock.setLocalCoalescing(properties.getRedis().getMaxLocalHandoffs());
+        }
+        return distributedLock;
     }
 
+    /**
+     * 默认使用redis作为分布式信号量
+     */
+    @Bean
+    @ConditionalOnMissingBean(DistributedSemaphore.class)
+    @ConditionalOnClass(RedisDistributedSemaphore.class)
+    @ConditionalOnProperty(prefix = DistributedLockProperties.PREFIX, name = "in-memory", havingValue = "false", matchIfMissing = true)
+    public DistributedSemaphore redisDistributedSemaphore(StringRedisTemplate redisTemplate,
+                                                          ObjectProvider<RedisLockReleaseSubscriber> releaseSubscriber) {
+        return new RedisDistributedSemaphore(redisTemplate, releaseSubscriber.getIfAvailable());
+    }
 
+    /**
+     * {@link io.github.kamarias.annotations.ClusterScheduled} 定时任务的主节点选举
+     * 需要锁实现 {@link HandleDistributedLock}，自定义的锁不支持时不创建
+     */
+    @Bean
+    @ConditionalOnMissingBean(LeaderElection.class)
+    @ConditionalOnBean(HandleDistributedLock.class)
+    public LeaderElection leaderElection(HandleDistributedLock distributedLock, DistributedLockProperties properties) {
+        DistributedLockProperties.Leader leader = properties.getLeader();
+        return new LeaderElection(distributedLock, leader.getKeyPrefix(), leader.getCampaignInterval().toMillis());
+    }
+
+    /**
+     * 带版本号的乐观并发存储，配合 {@link io.github.kamarias.annotations.OptimisticUpdate} 使用
+     */
+    @Bean
+    @ConditionalOnMissingBean(OptimisticStore.class)
+    @ConditionalOnProperty(prefix = DistributedLockProperties.PREFIX, name = "in-memory", havingValue = "false", matchIfMissing = true)
+    public OptimisticStore redisOptimisticStore(StringRedisTemplate redisTemplate) {
+        return new RedisOptimisticStore(redisTemplate);
+    }
+
+    /**
+     * 分片任务成员登记，存在 zookeeper 连接时使用 zookeeper，否则使用 redis，进程内的锁只有当前节点一个成员
+     */
+    @Bean
+    @ConditionalOnMissingBean(ShardMembership.class)
+    public ShardMembership shardMembership(ObjectProvider<ZooKeeperConnectionManager> connectionManager,
+                                           ObjectProvider<StringRedisTemplate> redisTemplate,
+                                           DistributedLockProperties properties) {
+        ZooKeeperConnectionManager zooKeeper = connectionManager.getIfAvailable();
+        if (zooKeeper != null) {
+            return new ZooKeeperShardMembership(zooKeeper);
+        }
+        StringRedisTemplate template = redisTemplate.getIfAvailable();
+        if (template != null && !properties.isInMemory()) {
+            return new RedisShardMembership(template);
+        }
+        return ShardMembership.standalone();
+    }
+
+    /**
+     * {@link io.github.kamarias.annotations.ShardedJob} 分片任务的分配
+     */
+    @Bean
+    @ConditionalOnMissingBean(ShardCoordinator.class)
+    public ShardCoordinator shardCoordinator(ShardMembership shardMembership, DistributedLockProperties properties) {
+        DistributedLockProperties.Shard shard = properties.getShard();
+        return new ShardCoordinator(shardMembership, shard.getHeartbeatInterval().toMillis(), shard.getMemberTimeout().toMillis());
+    }
+
+    /**
+     * 锁释放通知订阅者，开启 distributed.lock.redis.pub-sub 后生效
+     */
+    @Bean
+    @ConditionalOnMissingBean(RedisLockReleaseSubscriber.class)
+    @ConditionalOnProperty(prefix = DistributedLockProperties.PREFIX, name = "redis.pub-sub", havingValue = "true")
+    public RedisLockReleaseSubscriber redisLockReleaseSubscriber(DistributedLockProperties properties) {
+        return new RedisLockReleaseSubscriber(properties.getRedis().getReleaseChannel());
+    }
+
+    /**
+     * 每个节点只订阅一个释放通知频道
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = DistributedLockProperties.PREFIX, name = "redis.pub-sub", havingValue = "true")
+    public RedisMessageListenerContainer distributedLockListenerContainer(StringRedisTemplate redisTemplate,
+                                                                          RedisLockReleaseSubscriber releaseSubscriber) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisTemplate.getRequiredConnectionFactory());
+        container.addMessageListener(releaseSubscriber, new ChannelTopic(releaseSubscriber.getChannel()));
+        return container;
+    }
 
 }
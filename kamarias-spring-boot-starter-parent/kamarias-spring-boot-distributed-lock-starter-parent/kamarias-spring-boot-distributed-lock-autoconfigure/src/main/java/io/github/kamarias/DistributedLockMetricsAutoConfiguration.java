@@ -0,0 +1,59 @@
+package io.github.kamarias;
+
+
+import io.github.kamarias.lock.LockObserver;
+import io.github.kamarias.metrics.HotLockKeyTracker;
+import io.github.kamarias.metrics.HotLockKeysEndpoint;
+import io.github.kamarias.metrics.MicrometerLockObserver;
+import io.github.kamarias.properties.DistributedLockProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * 分布式锁指标自动配置，存在 MeterRegistry 时生效
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/26 14:00
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(MeterRegistry.class)
+@ConditionalOnBean(MeterRegistry.class)
+@AutoConfigureAfter(name = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
+@Import(DistributedLockProperties.class)
+public class DistributedLockMetricsAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    public HotLockKeyTracker hotLockKeyTracker(DistributedLockProperties properties) {
+        return new HotLockKeyTracker(properties.getMetrics().getHotKeyCapacity());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(LockObserver.class)
+    public LockObserver micrometerLockObserver(MeterRegistry registry, HotLockKeyTracker hotLockKeyTracker) {
+        return new MicrometerLockObserver(registry, hotLockKeyTracker);
+    }
+
+    /**
+     * 热点锁名端点，需要引入 actuator 并暴露 hotlocks 端点
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(Endpoint.class)
+    static class HotLockKeysEndpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnAvailableEndpoint(endpoint = HotLockKeysEndpoint.class)
+        public HotLockKeysEndpoint hotLockKeysEndpoint(HotLockKeyTracker hotLockKeyTracker, DistributedLockProperties properties) {
+            return new HotLockKeysEndpoint(hotLockKeyTracker, properties.getMetrics().getHotKeyLimit());
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package io.github.kamarias.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * 集群内只由主节点执行的定时任务，与 {@link org.springframework.scheduling.annotation.Scheduled} 一起使用
+ * 每个节点仍按计划触发，非主节点直接跳过；主节点通过 {@link io.github.kamarias.lock.LeaderElection} 选举并在多次触发之间保持，
+ * 锁实现需要支持 {@link io.github.kamarias.lock.HandleDistributedLock}
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 10:10
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ClusterScheduled {
+
+	/**
+	 * 选举名，同名的任务由同一个主节点执行
+	 * 为空时使用 类名.方法名
+	 */
+	String value() default "";
+}
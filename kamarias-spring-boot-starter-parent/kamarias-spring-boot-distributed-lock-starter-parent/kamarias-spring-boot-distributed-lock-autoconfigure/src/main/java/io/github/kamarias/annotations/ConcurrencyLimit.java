@@ -0,0 +1,50 @@
+package io.github.kamarias.annotations;
+
+import org.springframework.core.annotation.AliasFor;
+
+import java.lang.annotation.*;
+
+/**
+ * 集群并发限制，同一资源在整个集群内同时执行的调用数不超过 permits
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/21 14:30
+ */
+@Target({ElementType.TYPE,ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface ConcurrencyLimit {
+
+	/**
+	 * 限制的资源 别名 key
+	 * spelkey存在时优先使用spelkey spelkey > key = value
+	 */
+	@AliasFor("key")
+	String value() default "";
+
+	/**
+	 * 限制的资源 别名 value
+	 * spelkey存在时优先使用spelkey spelkey > key = value
+	 */
+	@AliasFor("value")
+	String key() default "";
+
+	/**
+	 * spel表达式限制的资源
+	 */
+	String spelkey() default "";
+
+	/**
+	 * 最大并发数
+	 */
+	int permits();
+
+	/**
+	 * 许可的过期时间, 单位毫秒 持有者宕机后到期自动归还
+	 */
+	long leaseMillis() default 30 * 1000;
+
+	/**
+	 * 获取不到许可时的最长等待时间, 单位毫秒 0 表示不等待
+	 */
+	long waitMillis() default 0;
+}
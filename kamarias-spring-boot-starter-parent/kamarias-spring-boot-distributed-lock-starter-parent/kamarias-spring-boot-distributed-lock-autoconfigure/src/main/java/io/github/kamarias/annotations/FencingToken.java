@@ -0,0 +1,17 @@
+package io.github.kamarias.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * 注入防护令牌
+ * 标注在 {@link LockAction} 方法的 long 或 Long 参数上，获取锁后由切面替换为本次加锁的防护令牌，
+ * 写入下游存储时一并携带，存储端拒绝小于已见过最大值的写入
+ * 锁住多个资源或锁实现不支持时注入 0；redis 锁需要开启 distributed.lock.redis.fencing-tokens
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/24 10:15
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface FencingToken {
+}
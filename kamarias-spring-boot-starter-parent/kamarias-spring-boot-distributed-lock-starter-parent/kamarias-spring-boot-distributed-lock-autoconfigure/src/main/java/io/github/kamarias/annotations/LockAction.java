@@ -29,7 +29,7 @@ public @interface LockAction {
 
 	/**
 	 * spel表达式锁资源（lockName）
-	 * 当存在时优先使用spel表达式
+	 * 当存在时优先使用spel表达式，结果为集合或数组时同时锁住其中全部资源
 	 */
 	String spelkey() default "";
 
@@ -55,6 +55,40 @@ public @interface LockAction {
 		CONTINUE
 	}
 
+	/**
+	 * 锁模式，读锁之间共享，写锁排他
+	 */
+	LockMode mode() default LockMode.WRITE;
+
+	enum LockMode{
+		/**
+		 * 读锁
+		 */
+		READ,
+
+		/**
+		 * 写锁
+		 */
+		WRITE
+	}
+
+	/**
+	 * 锁的范围，LOCAL 只在当前进程内互斥，不经过网络
+	 */
+	LockScope scope() default LockScope.CLUSTER;
+
+	enum LockScope{
+		/**
+		 * 进程内
+		 */
+		LOCAL,
+
+		/**
+		 * 集群内
+		 */
+		CLUSTER
+	}
+
 	/**
 	 * 重试的间隔时间, 单位毫秒 设置GIVEUP忽略此项
 	 */
@@ -64,4 +98,41 @@ public @interface LockAction {
 	 * 重试次数 设置GIVEUP忽略此项
 	 */
 	int retryTimes() default 5;
+
+	/**
+	 * 最长等待时间, 单位毫秒 大于等于 0 时按截止时间等待并忽略 retryTimes；设置GIVEUP忽略此项
+	 */
+	long maxWaitMills() default -1;
+
+	/**
+	 * 重试的退避策略，sleepMills 为初始等待时间
+	 */
+	Backoff backoff() default Backoff.FIXED;
+
+	/**
+	 * 单次等待时间的上限, 单位毫秒 FIXED 忽略此项
+	 */
+	long maxSleepMills() default 2000;
+
+	enum Backoff{
+		/**
+		 * 固定间隔 sleepMills
+		 */
+		FIXED,
+
+		/**
+		 * 指数退避，每次翻倍并随机抖动
+		 */
+		EXPONENTIAL,
+
+		/**
+		 * 去相关抖动，在初始等待时间和上一次等待时间的三倍之间随机取值
+		 */
+		DECORRELATED_JITTER,
+
+		/**
+		 * 去相关抖动，锁的剩余过期时间更短时在过期时间点附近重试
+		 */
+		PTTL
+	}
 }
@@ -0,0 +1,22 @@
+package io.github.kamarias.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * 乐观并发更新，方法抛出 {@link org.springframework.dao.OptimisticLockingFailureException}
+ * （包括 {@link io.github.kamarias.lock.VersionConflictException}）时重新执行整个方法
+ * 适合只修改单个值的读-改-写：方法内通过 {@link io.github.kamarias.lock.OptimisticStore} 读取并比较写入，不需要加锁；
+ * 方法会被执行多次，写入之前不应有其他副作用；与事务一起使用时应在事务外层，每次重试都是新的事务
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 11:00
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface OptimisticUpdate {
+
+	/**
+	 * 冲突后的最大重试次数，用完后把冲突异常抛给调用方
+	 */
+	int maxRetries() default 3;
+}
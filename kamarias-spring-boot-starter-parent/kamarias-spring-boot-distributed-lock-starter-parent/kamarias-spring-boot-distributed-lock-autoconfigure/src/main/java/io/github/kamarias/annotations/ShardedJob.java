@@ -0,0 +1,27 @@
+package io.github.kamarias.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * 分片执行的任务，每个节点只处理分配给自己的分片
+ * 分片按一致性哈希分配给存活的节点，节点加入或下线后自动重新分配；方法中通过
+ * {@link io.github.kamarias.lock.ShardContext#current()} 获取分配到的分片，没有分配到分片的节点跳过执行
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 15:30
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ShardedJob {
+
+	/**
+	 * 分片任务名，同名的任务共用成员和分片分配
+	 * 为空时使用 类名.方法名
+	 */
+	String value() default "";
+
+	/**
+	 * 分片总数，应远大于节点数，分配才能均匀
+	 */
+	int shards();
+}
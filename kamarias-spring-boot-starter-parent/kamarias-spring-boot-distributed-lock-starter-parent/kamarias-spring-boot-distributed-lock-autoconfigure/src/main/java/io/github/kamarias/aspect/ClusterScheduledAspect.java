@@ -0,0 +1,71 @@
+package io.github.kamarias.aspect;
+
+
+import io.github.kamarias.annotations.ClusterScheduled;
+import io.github.kamarias.lock.DistributedLock;
+import io.github.kamarias.lock.LeaderElection;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 集群定时任务切面，非主节点跳过执行
+ * 锁实现不支持 {@link io.github.kamarias.lock.HandleDistributedLock} 时没有主节点选举，任务报错而不是在每个节点都执行
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 10:40
+ */
+@Aspect
+@Configuration
+@ConditionalOnBean(DistributedLock.class)
+public class ClusterScheduledAspect {
+
+    private final Logger logger = LoggerFactory.getLogger(ClusterScheduledAspect.class);
+
+    @Autowired(required = false)
+    private LeaderElection leaderElection;
+
+    /**
+     * 方法对应的选举名
+     */
+    private final ConcurrentHashMap<Method, String> electionNames = new ConcurrentHashMap<>();
+
+    @Pointcut("@annotation(io.github.kamarias.annotations.ClusterScheduled)")
+    private void scheduledPoint() {
+
+    }
+
+    @Around("scheduledPoint()")
+    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        if (leaderElection == null) {
+            throw new IllegalStateException("@ClusterScheduled requires a LeaderElection bean, the DistributedLock bean must implement HandleDistributedLock");
+        }
+        String name = electionNames.computeIfAbsent(method, ClusterScheduledAspect::electionName);
+        if (!leaderElection.isLeader(name)) {
+            logger.debug("not leader, skip scheduled task : " + name);
+            return null;
+        }
+        return pjp.proceed();
+    }
+
+    private static String electionName(Method method) {
+        ClusterScheduled clusterScheduled = AnnotationUtils.getAnnotation(method, ClusterScheduled.class);
+        if (clusterScheduled != null && StringUtils.isNotBlank(clusterScheduled.value())) {
+            return clusterScheduled.value();
+        }
+        return method.getDeclaringClass().getName() + "." + method.getName();
+    }
+
+}
@@ -0,0 +1,68 @@
+package io.github.kamarias.aspect;
+
+
+import io.github.kamarias.annotations.ConcurrencyLimit;
+import io.github.kamarias.lock.DistributedSemaphore;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.lang.reflect.Method;
+
+/**
+ * 集群并发限制切面
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/21 14:40
+ */
+@Aspect
+@Configuration
+@ConditionalOnBean(DistributedSemaphore.class)
+public class ConcurrencyLimitAspect {
+
+    private final Logger logger = LoggerFactory.getLogger(ConcurrencyLimitAspect.class);
+
+    @Autowired
+    private DistributedSemaphore distributedSemaphore;
+
+    private final LockKeyEvaluator keyEvaluator = new LockKeyEvaluator();
+
+    @Pointcut("@annotation(io.github.kamarias.annotations.ConcurrencyLimit)")
+    private void limitPoint() {
+
+    }
+
+    @Around("limitPoint()")
+    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        ConcurrencyLimit limit = AnnotationUtils.getAnnotation(method, ConcurrencyLimit.class);
+        String key = limit.value();
+        if (StringUtils.isNotBlank(limit.spelkey())) {
+            key = String.valueOf(keyEvaluator.evaluate(limit.spelkey(), method, pjp.getArgs()));
+        }
+        String permitId = distributedSemaphore.acquire(key, limit.permits(), limit.leaseMillis(), limit.waitMillis());
+        if (permitId == null) {
+            logger.debug("get permit failed : " + key);
+            return null;
+        }
+        logger.debug("get permit success : " + key);
+        try {
+            return pjp.proceed();
+        } catch (Exception e) {
+            logger.error("execute limited method occured an exception", e);
+        } finally {
+            boolean releaseResult = distributedSemaphore.release(key, permitId);
+            logger.debug("release permit : " + key + (releaseResult ? " success" : " failed"));
+        }
+        return null;
+    }
+
+}
@@ -1,8 +1,14 @@
 package io.github.kamarias.aspect;
 
 
+import io.github.kamarias.annotations.FencingToken;
 import io.github.kamarias.annotations.LockAction;
+import io.github.kamarias.lock.BackoffStrategy;
 import io.github.kamarias.lock.DistributedLock;
+import io.github.kamarias.lock.DistributedReadWriteLock;
+import io.github.kamarias.lock.InMemoryDistributedLock;
+import io.github.kamarias.lock.LockHandle;
+import io.github.kamarias.lock.LockObserver;
 import org.apache.commons.lang3.StringUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
@@ -14,16 +20,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.DefaultParameterNameDiscoverer;
-import org.springframework.core.LocalVariableTableParameterNameDiscoverer;
 import org.springframework.core.annotation.AnnotationUtils;
-import org.springframework.expression.EvaluationContext;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
-import org.springframework.expression.spel.support.StandardEvaluationContext;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 分布式锁切面
@@ -40,11 +44,23 @@ public class DistributedLockAspect {
     @Autowired
     private DistributedLock distributedLock;
 
-    private final ExpressionParser parser = new SpelExpressionParser();
+    @Autowired(required = false)
+    private DistributedReadWriteLock readWriteLock;
 
-    private final  DefaultParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+    @Autowired(required = false)
+    private LockObserver lockObserver = LockObserver.NOOP;
 
-    private final LocalVariableTableParameterNameDiscoverer discoverer = new LocalVariableTableParameterNameDiscoverer();
+    private final LockKeyEvaluator keyEvaluator = new LockKeyEvaluator();
+
+    /**
+     * LOCAL 范围的锁
+     */
+    private final InMemoryDistributedLock localLock = new InMemoryDistributedLock();
+
+    /**
+     * 方法中标注了 {@link FencingToken} 的参数下标
+     */
+    private final ConcurrentHashMap<Method, int[]> fencingParameters = new ConcurrentHashMap<>();
 
     @Pointcut("@annotation(io.github.kamarias.annotations.LockAction)")
     private void lockPoint() {
@@ -56,28 +72,135 @@ public class DistributedLockAspect {
         Method method = ((MethodSignature) pjp.getSignature()).getMethod();
         LockAction lockAction = AnnotationUtils.getAnnotation(method, LockAction.class);
         String key = lockAction.value();
+        // spel表达式结果为集合或数组时同时锁住多个资源
+        List<String> keys = null;
         if (StringUtils.isNotBlank(lockAction.spelkey())){
-            key = parse(lockAction.spelkey(), method, pjp.getArgs());
+            Object value = keyEvaluator.evaluate(lockAction.spelkey(), method, pjp.getArgs());
+            keys = keyEvaluator.toKeys(value);
+            key = keys == null ? value.toString() : keys.toString();
         }
         int retryTimes = lockAction.action().equals(LockAction.LockFailAction.CONTINUE) ? lockAction.retryTimes() : 0;
-        boolean lock = distributedLock.lock(key, lockAction.keepMills(), retryTimes, lockAction.sleepMills());
+        DistributedLock targetLock = resolveLock(lockAction);
+        long start = System.nanoTime();
+        boolean lock;
+        if (keys != null) {
+            lock = targetLock.lockAll(keys, lockAction.keepMills(), retryTimes, lockAction.sleepMills());
+        } else if (lockAction.maxWaitMills() >= 0 || !LockAction.Backoff.FIXED.equals(lockAction.backoff())) {
+            lock = targetLock.tryLock(key, lockAction.keepMills(), maxWait(lockAction, retryTimes), backoff(lockAction));
+        } else {
+            lock = targetLock.lock(key, lockAction.keepMills(), retryTimes, lockAction.sleepMills());
+        }
+        long acquiredAt = System.nanoTime();
         if (!lock) {
+            lockObserver.onFailed(key, acquiredAt - start, lockAction.action().name());
             logger.debug("get lock failed : " + key);
             return null;
         }
+        lockObserver.onAcquired(key, acquiredAt - start);
         // 得到锁,执行方法,释放锁
         logger.debug("get lock success : " + key);
         try {
-            return pjp.proceed();
+            int[] fencingIndexes = fencingParameters.computeIfAbsent(method, DistributedLockAspect::findFencingParameters);
+            if (fencingIndexes.length == 0) {
+                return pjp.proceed();
+            }
+            LockHandle handle = keys == null ? targetLock.heldLock(key) : null;
+            long token = handle == null ? 0L : handle.getFencingToken();
+            Object[] args = pjp.getArgs().clone();
+            for (int index : fencingIndexes) {
+                args[index] = token;
+            }
+            return pjp.proceed(args);
         } catch (Exception e) {
             logger.error("execute locked method occured an exception", e);
         } finally {
-            boolean releaseResult = distributedLock.releaseLock(key);
+            boolean releaseResult = keys == null ? targetLock.releaseLock(key) : targetLock.releaseAll(keys);
+            lockObserver.onReleased(key, System.nanoTime() - acquiredAt);
             logger.debug("release lock : " + key + (releaseResult ? " success" : " failed"));
         }
         return null;
     }
 
+    /**
+     * 最长等待时间，未设置时按重试次数和重试间隔换算
+     */
+    private static Duration maxWait(LockAction lockAction, int retryTimes) {
+        if (!LockAction.LockFailAction.CONTINUE.equals(lockAction.action())) {
+            return Duration.ZERO;
+        }
+        if (lockAction.maxWaitMills() >= 0) {
+            return Duration.ofMillis(lockAction.maxWaitMills());
+        }
+        long sleepMills = Math.max(lockAction.sleepMills(), 1L);
+        return Duration.ofMillis(retryTimes > Long.MAX_VALUE / sleepMills ? Long.MAX_VALUE : retryTimes * sleepMills);
+    }
+
+    /**
+     * 注解配置的退避策略
+     */
+    private static BackoffStrategy backoff(LockAction lockAction) {
+        long base = lockAction.sleepMills();
+        long max = Math.max(lockAction.maxSleepMills(), base);
+        switch (lockAction.backoff()) {
+            case EXPONENTIAL:
+                return BackoffStrategy.exponential(base, max);
+            case DECORRELATED_JITTER:
+                return BackoffStrategy.decorrelatedJitter(base, max);
+            case PTTL:
+                return BackoffStrategy.ttlAware(BackoffStrategy.decorrelatedJitter(base, max));
+            default:
+                return BackoffStrategy.fixed(base);
+        }
+    }
+
+    /**
+     * 按锁范围和锁模式选择锁，进程内的锁只有排他模式
+     *
+     * @param lockAction 锁注解
+     * @return 进程内的锁、读锁或写锁
+     */
+    private DistributedLock resolveLock(LockAction lockAction) {
+        if (LockAction.LockScope.LOCAL.equals(lockAction.scope())) {
+            return localLock;
+        }
+        LockAction.LockMode mode = lockAction.mode();
+        DistributedReadWriteLock rwLock = readWriteLock;
+        if (rwLock == null && distributedLock instanceof DistributedReadWriteLock) {
+            rwLock = (DistributedReadWriteLock) distributedLock;
+        }
+        if (rwLock == null) {
+            if (LockAction.LockMode.READ.equals(mode)) {
+                logger.warn("no DistributedReadWriteLock available, read lock falls back to exclusive lock");
+            }
+            return distributedLock;
+        }
+        return LockAction.LockMode.READ.equals(mode) ? rwLock.readLock() : rwLock.writeLock();
+    }
+
+    /**
+     * 查找标注了 {@link FencingToken} 的 long 或 Long 参数
+     *
+     * @param method 方法
+     * @return 参数下标
+     */
+    private static int[] findFencingParameters(Method method) {
+        Annotation[][] annotations = method.getParameterAnnotations();
+        Class<?>[] types = method.getParameterTypes();
+        int[] indexes = new int[types.length];
+        int count = 0;
+        for (int i = 0; i < types.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof FencingToken) {
+                    if (types[i] != long.class && types[i] != Long.class) {
+                        throw new IllegalStateException("@FencingToken parameter must be long or Long: " + method);
+                    }
+                    indexes[count++] = i;
+                }
+            }
+        }
+        return Arrays.copyOf(indexes, count);
+    }
+
     /**
      * 解析SPEL表达式
      *
@@ -86,19 +209,8 @@ public class DistributedLockAspect {
      * @param args   方法参数
      * @return 解析后的字符串
      */
-    @SuppressWarnings("all")
     public String parse(String key, Method method, Object[] args) {
-        // 使用spring的DefaultParameterNameDiscoverer获取方法形参名数组
-        String[] paramNames = nameDiscoverer.getParameterNames(method);
-        // 解析过后的Spring表达式对象
-        Expression expression = parser.parseExpression(key);
-        // spring的表达式上下文对象
-        EvaluationContext context = new StandardEvaluationContext();
-        // 给上下文赋值
-        for (int i = 0; i < args.length; i++) {
-            context.setVariable(paramNames[i], args[i]);
-        }
-        return expression.getValue(context).toString();
+        return keyEvaluator.evaluate(key, method, args).toString();
     }
 
 }
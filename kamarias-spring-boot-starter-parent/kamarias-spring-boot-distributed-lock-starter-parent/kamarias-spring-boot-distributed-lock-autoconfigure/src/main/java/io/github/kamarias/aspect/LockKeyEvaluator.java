@@ -0,0 +1,244 @@
+package io.github.kamarias.aspect;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.MethodResolver;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.ReflectiveMethodResolver;
+import org.springframework.expression.spel.support.ReflectivePropertyAccessor;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 锁名SPEL表达式计算，分布式锁和并发限制切面共用
+ * 每个方法和表达式只解析一次并缓存：#param、#param.field 形式直接取参数和属性，不经过 SPEL；
+ * 其他表达式使用编译模式，求值上下文共用属性访问器和方法解析器，不再每次重新反射查找
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/21 14:05
+ */
+public class LockKeyEvaluator {
+
+    /**
+     * #param 或 #param.field
+     */
+    private static final Pattern SIMPLE_KEY = Pattern.compile("^#([A-Za-z_$][\\w$]*)(?:\\.([A-Za-z_$][\\w$]*))?$");
+
+    /**
+     * 编译失败或参数类型变化时自动退回解释执行，不会把异常抛给被锁的方法
+     */
+    private final SpelExpressionParser parser = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, LockKeyEvaluator.class.getClassLoader()));
+
+    private final DefaultParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    private final List<PropertyAccessor> propertyAccessors = Collections.singletonList(new ReflectivePropertyAccessor());
+
+    private final List<MethodResolver> methodResolvers = Collections.singletonList(new ReflectiveMethodResolver());
+
+    private final ConcurrentHashMap<GeneratorKey, KeyGenerator> generators = new ConcurrentHashMap<>();
+
+    /**
+     * 计算SPEL表达式
+     *
+     * @param key    表达式
+     * @param method 方法
+     * @param args   方法参数
+     * @return 表达式结果
+     */
+    public Object evaluate(String key, Method method, Object[] args) {
+        return generators.computeIfAbsent(new GeneratorKey(method, key), this::createGenerator).generate(args);
+    }
+
+    /**
+     * 多个锁资源转换为锁名集合
+     *
+     * @param value spel表达式结果
+     * @return 锁名集合，不是集合或数组时返回 null
+     */
+    public List<String> toKeys(Object value) {
+        Collection<?> values;
+        if (value instanceof Collection) {
+            values = (Collection<?>) value;
+        } else if (value != null && value.getClass().isArray()) {
+            values = Arrays.asList(ObjectUtils.toObjectArray(value));
+        } else {
+            return null;
+        }
+        List<String> keys = new ArrayList<>(values.size());
+        for (Object item : values) {
+            keys.add(String.valueOf(item));
+        }
+        return keys;
+    }
+
+    private KeyGenerator createGenerator(GeneratorKey generatorKey) {
+        Method method = generatorKey.method;
+        // 使用spring的DefaultParameterNameDiscoverer获取方法形参名数组
+        String[] paramNames = nameDiscoverer.getParameterNames(method);
+        if (paramNames == null) {
+            paramNames = new String[method.getParameterCount()];
+            for (int i = 0; i < paramNames.length; i++) {
+                paramNames[i] = "p" + i;
+            }
+        }
+        KeyGenerator spel = new SpelKeyGenerator(parser.parseExpression(generatorKey.expression), paramNames);
+        Matcher matcher = SIMPLE_KEY.matcher(generatorKey.expression.trim());
+        if (matcher.matches()) {
+            int index = Arrays.asList(paramNames).indexOf(matcher.group(1));
+            if (index >= 0) {
+                return new ParameterKeyGenerator(index, matcher.group(2), spel);
+            }
+        }
+        return spel;
+    }
+
+    /**
+     * 锁名生成器
+     */
+    private interface KeyGenerator {
+
+        Object generate(Object[] args);
+    }
+
+    /**
+     * 编译后的SPEL表达式
+     */
+    private class SpelKeyGenerator implements KeyGenerator {
+
+        private final Expression expression;
+
+        private final String[] paramNames;
+
+        SpelKeyGenerator(Expression expression, String[] paramNames) {
+            this.expression = expression;
+            this.paramNames = paramNames;
+        }
+
+        @Override
+        public Object generate(Object[] args) {
+            // spring的表达式上下文对象，共用访问器避免每次重新反射查找
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setPropertyAccessors(propertyAccessors);
+            context.setMethodResolvers(methodResolvers);
+            // 给上下文赋值
+            for (int i = 0; i < args.length; i++) {
+                context.setVariable(paramNames[i], args[i]);
+            }
+            return expression.getValue(context);
+        }
+    }
+
+    /**
+     * #param 或 #param.field，直接取参数或调用属性的 getter
+     */
+    private static class ParameterKeyGenerator implements KeyGenerator {
+
+        private final int index;
+
+        /**
+         * 属性名，为空时直接返回参数
+         */
+        private final String property;
+
+        /**
+         * 参数为空或没有 getter 时退回SPEL，保持原有的结果和异常
+         */
+        private final KeyGenerator fallback;
+
+        /**
+         * 最近一次参数类型对应的 getter
+         */
+        private volatile Getter getter;
+
+        ParameterKeyGenerator(int index, String property, KeyGenerator fallback) {
+            this.index = index;
+            this.property = property;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public Object generate(Object[] args) {
+            Object value = args[index];
+            if (property == null) {
+                return value;
+            }
+            if (value == null) {
+                return fallback.generate(args);
+            }
+            Getter current = getter;
+            if (current == null || current.type != value.getClass()) {
+                current = new Getter(value.getClass(), property);
+                getter = current;
+            }
+            if (current.readMethod == null) {
+                return fallback.generate(args);
+            }
+            return ReflectionUtils.invokeMethod(current.readMethod, value);
+        }
+    }
+
+    private static class Getter {
+
+        private final Class<?> type;
+
+        private final Method readMethod;
+
+        Getter(Class<?> type, String property) {
+            this.type = type;
+            PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, property);
+            Method method = descriptor == null ? null : descriptor.getReadMethod();
+            if (method != null) {
+                ReflectionUtils.makeAccessible(method);
+            }
+            this.readMethod = method;
+        }
+    }
+
+    private static class GeneratorKey {
+
+        private final Method method;
+
+        private final String expression;
+
+        GeneratorKey(Method method, String expression) {
+            this.method = method;
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GeneratorKey)) {
+                return false;
+            }
+            GeneratorKey that = (GeneratorKey) o;
+            return method.equals(that.method) && expression.equals(that.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(method, expression);
+        }
+    }
+
+}
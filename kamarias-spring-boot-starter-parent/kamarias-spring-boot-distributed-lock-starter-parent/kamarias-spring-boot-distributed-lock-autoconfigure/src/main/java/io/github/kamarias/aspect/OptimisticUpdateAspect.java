@@ -0,0 +1,66 @@
+package io.github.kamarias.aspect;
+
+
+import io.github.kamarias.annotations.OptimisticUpdate;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.lang.reflect.Method;
+
+/**
+ * 乐观并发更新切面，冲突时重新执行方法
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 11:10
+ */
+@Aspect
+@Configuration
+@ConditionalOnClass(OptimisticLockingFailureException.class)
+public class OptimisticUpdateAspect {
+
+    private final Logger logger = LoggerFactory.getLogger(OptimisticUpdateAspect.class);
+
+    /**
+     * 当前线程是否已在重试范围内，嵌套的方法不再单独重试，避免重试次数成倍增加
+     */
+    private final ThreadLocal<Boolean> retrying = new ThreadLocal<>();
+
+    @Pointcut("@annotation(io.github.kamarias.annotations.OptimisticUpdate)")
+    private void optimisticPoint() {
+
+    }
+
+    @Around("optimisticPoint()")
+    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+        if (retrying.get() != null) {
+            return pjp.proceed();
+        }
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        OptimisticUpdate optimisticUpdate = AnnotationUtils.getAnnotation(method, OptimisticUpdate.class);
+        retrying.set(Boolean.TRUE);
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return pjp.proceed();
+                } catch (OptimisticLockingFailureException e) {
+                    if (attempt >= optimisticUpdate.maxRetries()) {
+                        logger.debug("optimistic update retries exhausted : " + method.getName());
+                        throw e;
+                    }
+                    logger.debug("optimistic update conflict, retrying : " + method.getName() + " attempt " + (attempt + 1));
+                }
+            }
+        } finally {
+            retrying.remove();
+        }
+    }
+
+}
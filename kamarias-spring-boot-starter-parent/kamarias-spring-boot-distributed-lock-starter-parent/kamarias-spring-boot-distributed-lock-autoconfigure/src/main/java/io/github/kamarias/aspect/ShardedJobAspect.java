@@ -0,0 +1,76 @@
+package io.github.kamarias.aspect;
+
+
+import io.github.kamarias.annotations.ShardedJob;
+import io.github.kamarias.lock.ShardContext;
+import io.github.kamarias.lock.ShardCoordinator;
+import org.apache.commons.lang3.StringUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotationUtils;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分片任务切面，只执行分配给当前节点的分片
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 15:50
+ */
+@Aspect
+@Configuration
+@ConditionalOnBean(ShardCoordinator.class)
+public class ShardedJobAspect {
+
+    private final Logger logger = LoggerFactory.getLogger(ShardedJobAspect.class);
+
+    @Autowired
+    private ShardCoordinator shardCoordinator;
+
+    /**
+     * 方法对应的分片任务名
+     */
+    private final ConcurrentHashMap<Method, String> jobNames = new ConcurrentHashMap<>();
+
+    @Pointcut("@annotation(io.github.kamarias.annotations.ShardedJob)")
+    private void shardedPoint() {
+
+    }
+
+    @Around("shardedPoint()")
+    public Object around(ProceedingJoinPoint pjp) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        ShardedJob shardedJob = AnnotationUtils.getAnnotation(method, ShardedJob.class);
+        String job = jobNames.computeIfAbsent(method, ShardedJobAspect::jobName);
+        List<Integer> shards = shardCoordinator.assignedShards(job, shardedJob.shards());
+        if (shards.isEmpty()) {
+            logger.debug("no shard assigned, skip job : " + job);
+            return null;
+        }
+        logger.debug("execute job : " + job + " shards : " + shards);
+        ShardContext previous = ShardContext.set(new ShardContext(job, shardedJob.shards(), shards));
+        try {
+            return pjp.proceed();
+        } finally {
+            ShardContext.set(previous);
+        }
+    }
+
+    private static String jobName(Method method) {
+        ShardedJob shardedJob = AnnotationUtils.getAnnotation(method, ShardedJob.class);
+        if (shardedJob != null && StringUtils.isNotBlank(shardedJob.value())) {
+            return shardedJob.value();
+        }
+        return method.getDeclaringClass().getName() + "." + method.getName();
+    }
+
+}
@@ -1,10 +1,12 @@
 package io.github.kamarias.lock;
 
+import java.time.Duration;
+
 /**
  * 分布式锁接口抽象类
  * @author 王玉星
  */
-public abstract class AbstractDistributedLock implements DistributedLock {
+public abstract class AbstractDistributedLock implements HandleDistributedLock {
 
 	private static final long TIMEOUT_MILLIS = 30 * 1000L;
 
@@ -37,4 +39,14 @@ public abstract class AbstractDistributedLock implements DistributedLock {
 		return lock(key, expire, retryTimes, SLEEP_MILLIS);
 	}
 
+	/**
+	 * 等待时间换算为毫秒，超出范围时取最大值
+	 */
+	protected static long toMillis(Duration duration) {
+		if (duration.isNegative()) {
+			return 0L;
+		}
+		return duration.compareTo(Duration.ofMillis(Long.MAX_VALUE)) >= 0 ? Long.MAX_VALUE : duration.toMillis();
+	}
+
 }
@@ -0,0 +1,29 @@
+package io.github.kamarias.lock;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 非阻塞分布式锁接口
+ * 等待锁的过程中不占用调用线程，适合异步回调和虚拟线程场景
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/19 9:40
+ */
+public interface AsyncDistributedLock {
+
+	/**
+	 * 异步获取锁
+	 * @param key 锁名
+	 * @param leaseMillis 锁的过期时间，-1 表示自动续期
+	 * @param waitTimeoutMillis 最长等待时间
+	 * @return 获取成功时完成为锁，超时完成为 null
+	 */
+	CompletableFuture<LockHandle> lockAsync(String key, long leaseMillis, long waitTimeoutMillis);
+
+	/**
+	 * 异步释放锁
+	 * @param handle 获取到的锁
+	 * @return 是否成功
+	 */
+	CompletableFuture<Boolean> releaseAsync(LockHandle handle);
+}
@@ -0,0 +1,77 @@
+package io.github.kamarias.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 获取锁失败后的重试等待策略
+ * 固定间隔会让同时失败的调用方同时重试，随机化的退避把重试分散开，
+ * 结合锁的剩余过期时间可以在锁真正释放的时间点附近重试
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/27 10:30
+ */
+@FunctionalInterface
+public interface BackoffStrategy {
+
+	/**
+	 * 计算下一次重试前的等待时间
+	 * @param attempt 第几次重试，从 1 开始
+	 * @param previousDelay 上一次的等待时间，第一次为 0
+	 * @param lockTtl 锁的剩余过期时间，未知时小于等于 0
+	 * @return 等待时间，单位毫秒
+	 */
+	long nextDelay(int attempt, long previousDelay, long lockTtl);
+
+	/**
+	 * 固定间隔
+	 * @param delay 等待时间
+	 * @return 退避策略
+	 */
+	static BackoffStrategy fixed(long delay) {
+		return (attempt, previousDelay, lockTtl) -> delay;
+	}
+
+	/**
+	 * 指数退避，每次翻倍直到上限，在 [d/2, d] 内随机取值
+	 * @param base 初始等待时间
+	 * @param max 等待时间上限
+	 * @return 退避策略
+	 */
+	static BackoffStrategy exponential(long base, long max) {
+		return (attempt, previousDelay, lockTtl) -> {
+			// 左移不会溢出时才翻倍，否则直接取上限
+			long delay = attempt - 1 < Long.numberOfLeadingZeros(base) - 1 ? Math.min(max, base << (attempt - 1)) : max;
+			long half = delay / 2;
+			return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+		};
+	}
+
+	/**
+	 * 去相关抖动，在 [base, 上一次等待时间 * 3] 内随机取值，不超过上限
+	 * @param base 初始等待时间
+	 * @param max 等待时间上限
+	 * @return 退避策略
+	 */
+	static BackoffStrategy decorrelatedJitter(long base, long max) {
+		return (attempt, previousDelay, lockTtl) -> {
+			long upper = Math.min(max, Math.max(base, previousDelay) * 3);
+			return upper <= base ? base : ThreadLocalRandom.current().nextLong(base, upper + 1);
+		};
+	}
+
+	/**
+	 * 已知锁的剩余过期时间时不会等到过期之后，锁先于退避时间过期时在过期时间点附近重试
+	 * @param delegate 剩余过期时间未知时使用的策略
+	 * @return 退避策略
+	 */
+	static BackoffStrategy ttlAware(BackoffStrategy delegate) {
+		return (attempt, previousDelay, lockTtl) -> {
+			long delay = delegate.nextDelay(attempt, previousDelay, lockTtl);
+			if (lockTtl <= 0 || lockTtl >= delay) {
+				return delay;
+			}
+			// 过期时间点之后少量抖动，避免等待者同时醒来
+			return lockTtl + ThreadLocalRandom.current().nextLong(lockTtl / 10 + 1);
+		};
+	}
+}
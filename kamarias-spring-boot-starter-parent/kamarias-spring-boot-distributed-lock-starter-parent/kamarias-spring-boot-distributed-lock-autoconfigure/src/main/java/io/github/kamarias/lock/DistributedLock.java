@@ -1,11 +1,22 @@
 package io.github.kamarias.lock;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
 /**
  * 基于Redis的分布式锁接口
  * @author 王玉星
  */
 public interface DistributedLock {
 
+	/**
+	 * tryLock 默认的退避策略
+	 */
+	BackoffStrategy DEFAULT_BACKOFF = BackoffStrategy.ttlAware(BackoffStrategy.decorrelatedJitter(50L, 1000L));
+
 	/**
 	 * 获取锁
 	 * @param key redis key
@@ -57,10 +68,98 @@ public interface DistributedLock {
 	 */
 	boolean lock(String key, long expire, int retryTimes, long sleepMillis);
 
+	/**
+	 * 在最长等待时间内获取锁，失败后按默认退避策略重试
+	 * @param key redis key
+	 * @param expire 锁的过期时间
+	 * @param maxWait 最长等待时间
+	 * @return 是否成功
+	 */
+	default boolean tryLock(String key, long expire, Duration maxWait) {
+		return tryLock(key, expire, maxWait, DEFAULT_BACKOFF);
+	}
+
+	/**
+	 * 在最长等待时间内获取锁，失败后按退避策略重试
+	 * 默认每次只尝试一次 {@link #lock(String, long, int, long)}，失败后按退避策略等待，直到超过最长等待时间
+	 * @param key redis key
+	 * @param expire 锁的过期时间
+	 * @param maxWait 最长等待时间
+	 * @param backoff 退避策略
+	 * @return 是否成功
+	 */
+	default boolean tryLock(String key, long expire, Duration maxWait, BackoffStrategy backoff) {
+		long maxWaitMillis = AbstractDistributedLock.toMillis(maxWait);
+		long start = System.currentTimeMillis();
+		long delay = 0L;
+		int attempt = 0;
+		while (!lock(key, expire, 0, 0L)) {
+			long remaining = maxWaitMillis - (System.currentTimeMillis() - start);
+			if (remaining <= 0) {
+				return false;
+			}
+			delay = backoff.nextDelay(++attempt, delay, -1L);
+			try {
+				Thread.sleep(Math.max(0L, Math.min(delay, remaining)));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * 释放锁
 	 * @param key redis key
 	 * @return 是否成功
 	 */
 	boolean releaseLock(String key);
+
+	/**
+	 * 同时获取多个锁，全部获取成功才算成功，失败时不持有其中任何一个锁
+	 * 锁名会先排序再获取，不同调用方传入的顺序不同也不会死锁
+	 * 默认按排序后的顺序逐个获取，任意一个失败时按相反顺序释放已获取的锁，实现可以覆盖为一次请求完成；
+	 * redis 集群下只有锁名带相同的 hash tag（如 {order}:1、{order}:2）落在同一槽位时才能一次请求完成，否则逐个获取
+	 * @param keys 锁名集合
+	 * @param expire 锁的过期时间
+	 * @param retryTimes 获取锁重试次数
+	 * @param sleepMillis 获取锁失败后 如果重试需要休眠的时间
+	 * @return 是否成功
+	 */
+	default boolean lockAll(Collection<String> keys, long expire, int retryTimes, long sleepMillis) {
+		List<String> acquired = new ArrayList<>(keys.size());
+		for (String key : new TreeSet<>(keys)) {
+			if (!lock(key, expire, retryTimes, sleepMillis)) {
+				for (int i = acquired.size() - 1; i >= 0; i--) {
+					releaseLock(acquired.get(i));
+				}
+				return false;
+			}
+			acquired.add(key);
+		}
+		return true;
+	}
+
+	/**
+	 * 释放多个锁
+	 * @param keys 锁名集合
+	 * @return 是否全部释放成功
+	 */
+	default boolean releaseAll(Collection<String> keys) {
+		boolean result = true;
+		for (String key : new TreeSet<>(keys)) {
+			result &= releaseLock(key);
+		}
+		return result;
+	}
+
+	/**
+	 * 当前线程持有的锁，可以从中取得防护令牌，不要直接关闭
+	 * @param key 锁名
+	 * @return 当前线程未持有或实现不支持时返回 null
+	 */
+	default LockHandle heldLock(String key) {
+		return null;
+	}
 }
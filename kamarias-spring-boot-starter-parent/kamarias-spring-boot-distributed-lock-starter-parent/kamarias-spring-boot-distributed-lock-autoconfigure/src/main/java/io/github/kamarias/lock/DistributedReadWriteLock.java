@@ -0,0 +1,23 @@
+package io.github.kamarias.lock;
+
+/**
+ * 分布式读写锁接口
+ * 同一个锁名下读锁之间共享，写锁与读锁、写锁与写锁之间互斥
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/15 10:12
+ */
+public interface DistributedReadWriteLock {
+
+	/**
+	 * 读锁
+	 * @return 共享锁
+	 */
+	DistributedLock readLock();
+
+	/**
+	 * 写锁
+	 * @return 排他锁
+	 */
+	DistributedLock writeLock();
+}
@@ -0,0 +1,29 @@
+package io.github.kamarias.lock;
+
+/**
+ * 分布式信号量接口
+ * 限制整个集群内同一资源同时持有的许可数量
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/21 9:30
+ */
+public interface DistributedSemaphore {
+
+	/**
+	 * 获取一个许可
+	 * @param key 信号量名
+	 * @param permits 许可总数
+	 * @param leaseMillis 许可的过期时间，持有者宕机后到期自动归还
+	 * @param waitMillis 最长等待时间，0 表示不等待
+	 * @return 许可标识，释放时传入；获取失败返回 null
+	 */
+	String acquire(String key, int permits, long leaseMillis, long waitMillis);
+
+	/**
+	 * 归还许可
+	 * @param key 信号量名
+	 * @param permitId 获取时返回的许可标识
+	 * @return 是否成功，许可已过期时返回 false
+	 */
+	boolean release(String key, String permitId);
+}
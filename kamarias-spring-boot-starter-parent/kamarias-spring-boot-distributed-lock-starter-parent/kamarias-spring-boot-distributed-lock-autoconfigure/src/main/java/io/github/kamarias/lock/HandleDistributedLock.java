@@ -0,0 +1,30 @@
+package io.github.kamarias.lock;
+
+import java.time.Duration;
+
+/**
+ * 返回 {@link LockHandle} 的分布式锁接口
+ * 获取到的锁不与线程绑定，可以在其他线程或异步回调中释放；
+ * 内置的 redis、RedLock、zookeeper 和进程内实现都支持，{@link LeaderElection} 依赖该接口
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/14 16:00
+ */
+public interface HandleDistributedLock extends DistributedLock {
+
+	/**
+	 * 获取不与线程绑定的锁，可以在其他线程或异步回调中释放，配合 try-with-resources 使用
+	 * @param key redis key
+	 * @param expire 锁的过期时间，-1 表示自动续期
+	 * @param maxWait 最长等待时间
+	 * @return 获取成功返回锁，失败返回 null
+	 */
+	LockHandle acquire(String key, long expire, Duration maxWait);
+
+	/**
+	 * 释放 acquire 获取的锁，可以在任意线程调用
+	 * @param handle 获取到的锁
+	 * @return 是否成功
+	 */
+	boolean release(LockHandle handle);
+}
@@ -0,0 +1,272 @@
+package io.github.kamarias.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内的分布式锁实现
+ * 与 redis 锁语义一致：锁有过期时间（-1 表示不过期），同一线程可重入，等待者按到达顺序获取；
+ * 锁名按哈希分散到多个公平锁分段，每个分段保存自己的锁表，不经过网络，适合只需进程内互斥的资源，也可以在测试中代替 redis
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/24 14:20
+ */
+public class InMemoryDistributedLock extends AbstractDistributedLock {
+
+    private static final int DEFAULT_CONCURRENCY = 64;
+
+    /**
+     * 分段锁表清理过期锁的最小阈值
+     */
+    private static final int MIN_PURGE_THRESHOLD = 16;
+
+    /**
+     * 过期时间的上限，System.nanoTime 只能按差值比较，更长的过期时间视为不过期
+     */
+    private static final long MAX_LEASE_NANOS = Long.MAX_VALUE / 2;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(InMemoryDistributedLock.class);
+
+    private final Stripe[] stripes;
+
+    /**
+     * 防护令牌和持锁标识共用的序号
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 当前线程持有的锁，key 为锁名
+     */
+    private final ThreadLocal<Map<String, LockHandle>> context = ThreadLocal.withInitial(HashMap::new);
+
+    public InMemoryDistributedLock() {
+        this(DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param concurrency 分段数量，向上取整为 2 的幂
+     */
+    public InMemoryDistributedLock(int concurrency) {
+        int size = 1;
+        while (size < concurrency) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public boolean lock(String key, long expire, int retryTimes, long sleepMillis) {
+        return lock(key, expire, retryTimes > Long.MAX_VALUE / Math.max(sleepMillis, 1L) ? Long.MAX_VALUE : retryTimes * sleepMillis);
+    }
+
+    /**
+     * 等待者在释放或持有者过期时被唤醒，不需要退避
+     */
+    @Override
+    public boolean tryLock(String key, long expire, Duration maxWait, BackoffStrategy backoff) {
+        return lock(key, expire, toMillis(maxWait));
+    }
+
+    private boolean lock(String key, long expire, long maxWait) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle != null && !handle.isLost()) {
+            // 当前线程重入
+            handle.incrementHoldCount();
+            return true;
+        }
+        handle = acquire(key, expire, maxWait);
+        if (handle == null) {
+            return false;
+        }
+        lockMap.put(key, handle);
+        return true;
+    }
+
+    @Override
+    public boolean releaseLock(String key) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle == null) {
+            return false;
+        }
+        if (handle.getHoldCount() <= 1) {
+            lockMap.remove(key);
+            if (lockMap.isEmpty()) {
+                context.remove();
+            }
+        }
+        return release(handle);
+    }
+
+    @Override
+    public LockHandle heldLock(String key) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (lockMap.isEmpty()) {
+            context.remove();
+        }
+        return handle;
+    }
+
+    @Override
+    public LockHandle acquire(String key, long expire, Duration maxWait) {
+        return acquire(key, expire, toMillis(maxWait));
+    }
+
+    /**
+     * 获取锁，返回的锁不与当前线程绑定
+     *
+     * @param key         锁名
+     * @param leaseMillis 锁的过期时间，-1 表示不过期
+     * @param waitMillis  最长等待时间
+     * @return 获取成功返回锁，超时或线程被中断返回 null
+     */
+    public LockHandle acquire(String key, long leaseMillis, long waitMillis) {
+        Stripe stripe = stripe(key);
+        long start = System.nanoTime();
+        long waitNanos = waitMillis >= TimeUnit.NANOSECONDS.toMillis(Long.MAX_VALUE) ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        try {
+            stripe.lock.lockInterruptibly();
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    Lease lease = stripe.leases.get(key);
+                    if (lease != null && lease.isExpired(now)) {
+                        // 持有者超过过期时间，锁被收回
+                        lease.handle.markLost();
+                        stripe.leases.remove(key);
+                        lease = null;
+                    }
+                    if (lease == null) {
+                        return grant(stripe, key, leaseMillis, now);
+                    }
+                    long remaining = waitNanos - (now - start);
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    // 最多等到当前持有者过期
+                    long untilExpiry = lease.expiresAt == Long.MAX_VALUE ? Long.MAX_VALUE : lease.expiresAt - now;
+                    stripe.released.awaitNanos(Math.min(remaining, untilExpiry));
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 释放锁，可以在获取锁之外的线程调用；锁已过期被他人获取时不影响新的持有者
+     *
+     * @param handle 获取到的锁
+     * @return 是否成功
+     */
+    @Override
+    public boolean release(LockHandle handle) {
+        int remaining = handle.decrementHoldCount();
+        if (remaining != 0) {
+            // 还有重入未退出，或者已经释放过
+            return remaining > 0;
+        }
+        Stripe stripe = stripe(handle.getKey());
+        stripe.lock.lock();
+        try {
+            Lease lease = stripe.leases.get(handle.getKey());
+            if (lease == null || lease.handle != handle) {
+                return false;
+            }
+            stripe.leases.remove(handle.getKey());
+            stripe.released.signalAll();
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 在分段锁内登记新的持有者
+     */
+    private LockHandle grant(Stripe stripe, String key, long leaseMillis, long now) {
+        long token = sequence.incrementAndGet();
+        LockHandle handle = new LockHandle(key, Long.toString(token), leaseMillis, this);
+        handle.setFencingToken(token);
+        long leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        // 过期时间过长时饱和为不过期，避免相加溢出后锁立即过期
+        long expiresAt = leaseMillis < 0 || leaseNanos > MAX_LEASE_NANOS ? Long.MAX_VALUE : now + leaseNanos;
+        stripe.leases.put(key, new Lease(handle, expiresAt));
+        if (stripe.leases.size() > stripe.purgeThreshold) {
+            purgeExpired(stripe, now);
+        }
+        return handle;
+    }
+
+    /**
+     * 清理没有人再竞争的过期锁，锁表翻倍增长时才清理一次
+     */
+    private void purgeExpired(Stripe stripe, long now) {
+        Iterator<Lease> iterator = stripe.leases.values().iterator();
+        while (iterator.hasNext()) {
+            Lease lease = iterator.next();
+            if (lease.isExpired(now)) {
+                lease.handle.markLost();
+                iterator.remove();
+            }
+        }
+        stripe.purgeThreshold = Math.max(MIN_PURGE_THRESHOLD, stripe.leases.size() * 2);
+    }
+
+    private Stripe stripe(String key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * 锁分段，公平锁保证等待者按到达顺序获取
+     */
+    private static class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock(true);
+
+        private final Condition released = lock.newCondition();
+
+        private final Map<String, Lease> leases = new HashMap<>();
+
+        private int purgeThreshold = MIN_PURGE_THRESHOLD;
+    }
+
+    private static class Lease {
+
+        private final LockHandle handle;
+
+        /**
+         * 过期时间点，System.nanoTime 时间轴
+         */
+        private final long expiresAt;
+
+        Lease(LockHandle handle, long expiresAt) {
+            this.handle = handle;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != Long.MAX_VALUE && now - expiresAt >= 0;
+        }
+    }
+
+}
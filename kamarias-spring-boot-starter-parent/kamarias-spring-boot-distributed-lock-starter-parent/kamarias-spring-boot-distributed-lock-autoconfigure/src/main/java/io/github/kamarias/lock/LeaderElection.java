@@ -0,0 +1,163 @@
+package io.github.kamarias.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于分布式锁的主节点选举
+ * 每个选举名对应一把自动续期的锁（redis 由看门狗续期，zookeeper 为会话临时节点），获取到锁的节点成为主节点，
+ * 一直保持到锁失去或节点关闭；非主节点在后台按固定间隔竞选，判断是否为主节点只读取本地状态，不访问锁服务
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 10:20
+ */
+public class LeaderElection implements DisposableBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(LeaderElection.class);
+
+    private final HandleDistributedLock distributedLock;
+
+    /**
+     * 锁名前缀
+     */
+    private final String keyPrefix;
+
+    /**
+     * 非主节点的竞选间隔，也是发现失去主节点的最长延迟
+     */
+    private final long campaignMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentHashMap<String, Candidate> candidates = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * @param distributedLock 分布式锁
+     * @param keyPrefix       锁名前缀
+     * @param campaignMillis  竞选间隔，单位毫秒
+     */
+    public LeaderElection(HandleDistributedLock distributedLock, String keyPrefix, long campaignMillis) {
+        this.distributedLock = distributedLock;
+        this.keyPrefix = keyPrefix;
+        this.campaignMillis = campaignMillis;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("leader-election-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * 当前节点是否为主节点
+     * 第一次调用时加入选举并竞选一次，之后只读取本地状态
+     *
+     * @param name 选举名
+     * @return 是否为主节点
+     */
+    public boolean isLeader(String name) {
+        Candidate candidate = candidates.computeIfAbsent(name, Candidate::new);
+        if (candidate.joined.compareAndSet(false, true)) {
+            campaign(candidate);
+            scheduler.scheduleWithFixedDelay(() -> campaign(candidate), campaignMillis, campaignMillis, TimeUnit.MILLISECONDS);
+        }
+        return candidate.isLeader();
+    }
+
+    /**
+     * 获取主节点持有的锁，可以取防护令牌写入下游存储
+     *
+     * @param name 选举名
+     * @return 当前节点不是主节点时返回 null
+     */
+    public LockHandle leaderHandle(String name) {
+        Candidate candidate = candidates.get(name);
+        return candidate != null && candidate.isLeader() ? candidate.handle : null;
+    }
+
+    /**
+     * 竞选，已是主节点时只检查锁是否失去，续期由锁实现负责
+     */
+    private void campaign(Candidate candidate) {
+        synchronized (candidate) {
+            LockHandle handle = candidate.handle;
+            if (handle != null && !handle.isLost()) {
+                return;
+            }
+            if (handle != null) {
+                LOGGER.warn("leadership lost, election name: {}", candidate.name);
+                candidate.handle = null;
+                release(handle);
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                handle = distributedLock.acquire(keyPrefix + candidate.name, -1L, Duration.ZERO);
+            } catch (Exception e) {
+                LOGGER.error("campaign for leadership occurred an exception, election name: " + candidate.name, e);
+                return;
+            }
+            if (handle != null) {
+                LOGGER.info("elected as leader, election name: {}", candidate.name);
+                candidate.handle = handle;
+            }
+        }
+    }
+
+    private void release(LockHandle handle) {
+        try {
+            distributedLock.release(handle);
+        } catch (Exception e) {
+            LOGGER.warn("release leadership occurred an exception, lock name: {}", handle.getKey(), e);
+        }
+    }
+
+    /**
+     * 关闭时主动让出，其他节点在下一次竞选时接任，不必等锁过期
+     */
+    @Override
+    public void destroy() {
+        closed = true;
+        scheduler.shutdownNow();
+        for (Candidate candidate : candidates.values()) {
+            synchronized (candidate) {
+                LockHandle handle = candidate.handle;
+                candidate.handle = null;
+                if (handle != null && !handle.isLost()) {
+                    release(handle);
+                }
+            }
+        }
+    }
+
+    private static class Candidate {
+
+        private final String name;
+
+        private final AtomicBoolean joined = new AtomicBoolean(false);
+
+        /**
+         * 作为主节点持有的锁
+         */
+        private volatile LockHandle handle;
+
+        Candidate(String name) {
+            this.name = name;
+        }
+
+        boolean isLeader() {
+            LockHandle current = handle;
+            return current != null && !current.isLost();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package io.github.kamarias.lock;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 基于 Lettuce 异步命令执行 lua 脚本，不占用调用线程
+ * 只在共享原生连接时使用，避免连接归还后仍有命令在途；
+ * 每次执行都从连接工厂取共享连接，连接工厂重置连接后使用新的连接
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/19 10:05
+ */
+class LettuceScriptExecutor {
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private LettuceScriptExecutor(LettuceConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * 创建执行器
+     *
+     * @param connectionFactory redis 连接工厂
+     * @return 不是共享连接的 Lettuce 连接工厂时返回 null
+     */
+    static LettuceScriptExecutor create(RedisConnectionFactory connectionFactory) {
+        if (!(connectionFactory instanceof LettuceConnectionFactory)
+                || !((LettuceConnectionFactory) connectionFactory).getShareNativeConnection()) {
+            return null;
+        }
+        return new LettuceScriptExecutor((LettuceConnectionFactory) connectionFactory);
+    }
+
+    /**
+     * 当前的共享原生连接
+     */
+    private RedisClusterAsyncCommands<byte[], byte[]> commands() {
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            // 共享连接关闭时不会关闭原生连接
+            return ((LettuceConnection) connection).getNativeConnection();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 执行返回整数或列表的脚本，优先 evalsha，脚本未缓存时退回 eval
+     *
+     * @param script 脚本
+     * @param keys   KEYS
+     * @param args   ARGV
+     * @return 脚本结果，nil 时为 null
+     */
+    <T> CompletableFuture<T> eval(RedisScript<T> script, List<String> keys, String... args) {
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[][] rawArgs = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            rawArgs[i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        ScriptOutputType outputType = List.class.isAssignableFrom(script.getResultType()) ? ScriptOutputType.MULTI : ScriptOutputType.INTEGER;
+        CompletableFuture<T> future = new CompletableFuture<>();
+        RedisClusterAsyncCommands<byte[], byte[]> commands = commands();
+        commands.<T>evalsha(script.getSha1(), outputType, rawKeys, rawArgs).whenComplete((result, error) -> {
+            if (error == null) {
+                future.complete(result);
+            } else if (String.valueOf(error.getMessage()).startsWith("NOSCRIPT")) {
+                commands.<T>eval(script.getScriptAsString(), outputType, rawKeys, rawArgs).whenComplete((retry, retryError) -> {
+                    if (retryError == null) {
+                        future.complete(retry);
+                    } else {
+                        future.completeExceptionally(retryError);
+                    }
+                });
+            } else {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+}
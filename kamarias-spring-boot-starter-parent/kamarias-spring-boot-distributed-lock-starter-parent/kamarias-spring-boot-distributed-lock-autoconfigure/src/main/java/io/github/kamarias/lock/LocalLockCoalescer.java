@@ -0,0 +1,149 @@
+package io.github.kamarias.lock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 本地锁合并
+ * 同一个 JVM 内竞争同一把锁的线程先在本地排队，只有排在最前面的线程去竞争分布式锁；
+ * 持锁线程释放时如果本地还有等待者，直接把分布式锁交给下一个本地等待者，不再经过远程释放和获取
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/20 15:10
+ */
+public class LocalLockCoalescer {
+
+    /**
+     * 连续本地移交的最大次数，超过后必须远程释放一次，避免其他节点饿死
+     */
+    private final int maxHandoffs;
+
+    /**
+     * 移交后没有线程接手的分布式锁由它远程释放
+     */
+    private final Consumer<LockHandle> orphanReleaser;
+
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+
+    public LocalLockCoalescer(int maxHandoffs, Consumer<LockHandle> orphanReleaser) {
+        this.maxHandoffs = maxHandoffs;
+        this.orphanReleaser = orphanReleaser;
+    }
+
+    /**
+     * 进入本地队列并等待成为本地持有者
+     *
+     * @param key     锁名
+     * @param maxWait 最长等待时间
+     * @return 成为本地持有者返回对应的槽位，超时返回 null
+     * @throws InterruptedException 线程被中断
+     */
+    Slot enter(String key, long maxWait) throws InterruptedException {
+        Slot slot = slots.compute(key, (k, s) -> {
+            if (s == null) {
+                s = new Slot();
+            }
+            s.refs++;
+            return s;
+        });
+        boolean locked = false;
+        try {
+            locked = slot.lock.tryLock(maxWait, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!locked) {
+                leave(key);
+            }
+        }
+        return locked ? slot : null;
+    }
+
+    /**
+     * 本地持有者离开
+     *
+     * @param key  锁名
+     * @param slot 槽位
+     */
+    void exit(String key, Slot slot) {
+        slot.lock.unlock();
+        leave(key);
+    }
+
+    Slot slot(String key) {
+        return slots.get(key);
+    }
+
+    private void leave(String key) {
+        LockHandle[] orphan = new LockHandle[1];
+        slots.computeIfPresent(key, (k, s) -> {
+            if (--s.refs > 0) {
+                return s;
+            }
+            // 移交时的等待者恰好超时离开，没有线程接手
+            orphan[0] = s.handedOff;
+            return null;
+        });
+        if (orphan[0] != null) {
+            orphanReleaser.accept(orphan[0]);
+        }
+    }
+
+    /**
+     * 单个锁的本地队列
+     */
+    class Slot {
+
+        /**
+         * 公平锁，本地等待者按先后顺序接手
+         */
+        private final ReentrantLock lock = new ReentrantLock(true);
+
+        /**
+         * 上一个持有者移交过来的分布式锁，持有 lock 时读写，最后一个线程离开时检查
+         */
+        private volatile LockHandle handedOff;
+
+        /**
+         * 连续移交次数，只在持有 lock 时读写
+         */
+        private int handoffs;
+
+        /**
+         * 排队和持有的线程数，只在 ConcurrentHashMap 的 compute 中修改
+         */
+        private int refs;
+
+        /**
+         * 取走上一个持有者移交的分布式锁
+         *
+         * @return 没有移交时返回 null
+         */
+        LockHandle takeHandedOff() {
+            LockHandle handle = handedOff;
+            handedOff = null;
+            return handle;
+        }
+
+        boolean isHeldByCurrentThread() {
+            return lock.isHeldByCurrentThread();
+        }
+
+        /**
+         * 是否可以把分布式锁移交给下一个本地等待者
+         */
+        boolean canHandOff() {
+            return lock.hasQueuedThreads() && handoffs < maxHandoffs;
+        }
+
+        void handOff(LockHandle handle) {
+            handedOff = handle;
+            handoffs++;
+        }
+
+        void resetHandoffs() {
+            handoffs = 0;
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package io.github.kamarias.lock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 已获取的锁
+ * 持有持锁标识、过期时间和重入次数，不与线程绑定，可以交给异步回调或其他线程释放；
+ * 关闭时由获取它的锁实现释放（同时取消自动续期），可以配合 try-with-resources 使用
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/14 16:20
+ */
+public class LockHandle implements AutoCloseable {
+
+    /**
+     * 锁名
+     */
+    private final String key;
+
+    /**
+     * 持锁标识
+     */
+    private final String owner;
+
+    /**
+     * 锁的过期时间，-1 表示自动续期
+     */
+    private final long leaseMillis;
+
+    /**
+     * 本地重入次数
+     */
+    private final AtomicInteger holdCount = new AtomicInteger(1);
+
+    /**
+     * 是否已确认失去锁（会话过期、节点被删除等）
+     */
+    private volatile boolean lost;
+
+    /**
+     * 防护令牌，同一锁名下每次获取单调递增，0 表示实现不支持
+     */
+    private volatile long fencingToken;
+
+    /**
+     * 获取它的锁实现，关闭时由它释放
+     */
+    private final HandleDistributedLock lock;
+
+    public LockHandle(String key, String owner, long leaseMillis) {
+        this(key, owner, leaseMillis, null);
+    }
+
+    LockHandle(String key, String owner, long leaseMillis, HandleDistributedLock lock) {
+        this.key = key;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+        this.lock = lock;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    public int getHoldCount() {
+        return holdCount.get();
+    }
+
+    /**
+     * 是否已确认失去锁，为 true 时受保护的操作不应继续执行
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    void markLost() {
+        this.lost = true;
+    }
+
+    /**
+     * 防护令牌，写入下游存储时一并携带，存储端拒绝小于已见过最大值的写入，
+     * 持锁方因停顿超过过期时间后的过期写入会被拒绝
+     *
+     * @return 令牌，0 表示实现不支持
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
+    /**
+     * 重入，只增加本地计数
+     *
+     * @return 重入后的次数
+     */
+    int incrementHoldCount() {
+        return holdCount.incrementAndGet();
+    }
+
+    /**
+     * 退出一层
+     *
+     * @return 剩余的次数，为 0 时需要真正释放锁，已经释放过返回 -1
+     */
+    int decrementHoldCount() {
+        int current;
+        do {
+            current = holdCount.get();
+            if (current <= 0) {
+                return -1;
+            }
+        } while (!holdCount.compareAndSet(current, current - 1));
+        return current - 1;
+    }
+
+    /**
+     * 释放锁，可以在任意线程调用，重复关闭不会有影响
+     * 线程绑定的锁（{@link DistributedLock#heldLock(String)}）应当通过 releaseLock 释放
+     */
+    @Override
+    public void close() {
+        if (lock != null) {
+            lock.release(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LockHandle{key='" + key + "', owner='" + owner + "', holdCount=" + holdCount.get() + "}";
+    }
+
+}
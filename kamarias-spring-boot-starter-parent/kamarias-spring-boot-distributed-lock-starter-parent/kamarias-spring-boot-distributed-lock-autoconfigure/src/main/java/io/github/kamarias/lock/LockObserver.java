@@ -0,0 +1,57 @@
+package io.github.kamarias.lock;
+
+/**
+ * 锁事件观察者，用于统计获取耗时、重试次数、持有时间和续期情况
+ * 回调在加锁、解锁的线程中同步执行，实现不能阻塞
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/26 9:50
+ */
+public interface LockObserver {
+
+	/**
+	 * 不做任何处理
+	 */
+	LockObserver NOOP = new LockObserver() {
+	};
+
+	/**
+	 * 同步获取锁失败后进行了一次重试
+	 * @param key 锁名
+	 */
+	default void onRetry(String key) {
+	}
+
+	/**
+	 * 获取锁成功
+	 * @param key 锁名
+	 * @param waitNanos 获取耗时
+	 */
+	default void onAcquired(String key, long waitNanos) {
+	}
+
+	/**
+	 * 获取锁失败
+	 * @param key 锁名
+	 * @param waitNanos 获取耗时
+	 * @param failAction 获取失败时的动作
+	 */
+	default void onFailed(String key, long waitNanos, String failAction) {
+	}
+
+	/**
+	 * 释放锁
+	 * @param key 锁名
+	 * @param holdNanos 持有时间
+	 */
+	default void onReleased(String key, long holdNanos) {
+	}
+
+	/**
+	 * 看门狗完成一批续期
+	 * @param renewed 续期成功的数量
+	 * @param lost 已不再持有的数量
+	 */
+	default void onRenewed(int renewed, int lost) {
+	}
+}
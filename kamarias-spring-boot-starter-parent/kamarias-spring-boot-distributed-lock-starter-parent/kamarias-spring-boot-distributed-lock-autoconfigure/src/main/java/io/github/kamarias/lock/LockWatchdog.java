@@ -0,0 +1,228 @@
+package io.github.kamarias.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 锁续期看门狗
+ * 一个锁实例共用一个调度线程，按固定周期批量续期所有自动续期的锁，
+ * 线程数和续期请求数不随持有锁的数量增长
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/13 14:02
+ */
+public class LockWatchdog {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(LockWatchdog.class);
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Renewer renewer;
+
+    private final long leaseMillis;
+
+    private final int batchSize;
+
+    /**
+     * 需要续期的锁
+     */
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private volatile LockObserver observer = LockObserver.NOOP;
+
+    /**
+     * @param scheduler   调度线程池
+     * @param renewer     批量续期实现
+     * @param leaseMillis 每次续期的过期时间，续期周期为其三分之一
+     * @param batchSize   单次续期请求最多携带的锁数量
+     */
+    public LockWatchdog(ScheduledExecutorService scheduler, Renewer renewer, long leaseMillis, int batchSize) {
+        this.scheduler = scheduler;
+        this.renewer = renewer;
+        this.leaseMillis = leaseMillis;
+        this.batchSize = batchSize;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    public void setObserver(LockObserver observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * 登记需要续期的锁
+     *
+     * @param key   锁名
+     * @param owner 持锁标识
+     */
+    public void register(String key, String owner) {
+        register(new Lease(key, owner, null));
+    }
+
+    /**
+     * 登记需要续期的锁，续期确认失去锁时标记锁为失去
+     *
+     * @param handle 获取到的锁
+     */
+    public void register(LockHandle handle) {
+        register(new Lease(handle.getKey(), handle.getOwner(), handle));
+    }
+
+    private void register(Lease lease) {
+        leases.add(lease);
+        if (started.compareAndSet(false, true)) {
+            long period = leaseMillis / 3;
+            scheduler.scheduleAtFixedRate(this::renewAll, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 取消续期，释放锁之前调用
+     *
+     * @param key   锁名
+     * @param owner 持锁标识
+     */
+    public void cancel(String key, String owner) {
+        leases.remove(new Lease(key, owner));
+    }
+
+    private void renewAll() {
+        if (leases.isEmpty()) {
+            return;
+        }
+        List<Lease> batch = new ArrayList<>(Math.min(batchSize, leases.size()));
+        for (Lease lease : leases) {
+            batch.add(lease);
+            if (batch.size() == batchSize) {
+                renew(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            renew(batch);
+        }
+    }
+
+    private void renew(List<Lease> batch) {
+        // 过期时间从请求发出之后开始计算，以发出时间作为确认时间偏保守
+        long sentAt = System.nanoTime();
+        try {
+            Collection<Lease> lost = renewer.renew(batch, leaseMillis);
+            // 锁已经不属于当前持有者（已过期或被删除），不再续期
+            for (Lease lease : lost) {
+                leases.remove(lease);
+                lease.markLost();
+                LOGGER.warn("lock lease lost, stop renewing, lock name: {}", lease.getKey());
+            }
+            for (Lease lease : batch) {
+                lease.confirmedAt = sentAt;
+            }
+            observer.onRenewed(batch.size() - lost.size(), lost.size());
+            LOGGER.debug("update lock time, lock count: {}", batch.size());
+        } catch (Exception e) {
+            // 单次续期失败不影响下一个周期
+            LOGGER.error("renew lock occurred an exception", e);
+            // 连续两个周期没有续期成功，剩余时间已不足一个周期，不能再认为仍持有锁
+            long threshold = TimeUnit.MILLISECONDS.toNanos(leaseMillis) * 2 / 3;
+            for (Lease lease : batch) {
+                if (sentAt - lease.confirmedAt >= threshold) {
+                    leases.remove(lease);
+                    lease.markLost();
+                    LOGGER.warn("lock lease not renewed in time, stop renewing, lock name: {}", lease.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * 批量续期实现
+     */
+    @FunctionalInterface
+    public interface Renewer {
+
+        /**
+         * 批量续期
+         *
+         * @param leases      需要续期的锁
+         * @param leaseMillis 续期后的过期时间
+         * @return 续期失败（已不再持有）的锁
+         */
+        Collection<Lease> renew(List<Lease> leases, long leaseMillis);
+    }
+
+    /**
+     * 续期登记信息
+     */
+    public static class Lease {
+
+        private final String key;
+
+        private final String owner;
+
+        /**
+         * 获取到的锁，不参与比较
+         */
+        private final LockHandle handle;
+
+        /**
+         * 最近一次确认持有的时间，System.nanoTime 时间轴
+         */
+        private volatile long confirmedAt = System.nanoTime();
+
+        public Lease(String key, String owner) {
+            this(key, owner, null);
+        }
+
+        Lease(String key, String owner, LockHandle handle) {
+            this.key = key;
+            this.owner = owner;
+            this.handle = handle;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        private void markLost() {
+            if (handle != null) {
+                handle.markLost();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Lease)) {
+                return false;
+            }
+            Lease lease = (Lease) o;
+            return key.equals(lease.key) && owner.equals(lease.owner);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, owner);
+        }
+    }
+
+}
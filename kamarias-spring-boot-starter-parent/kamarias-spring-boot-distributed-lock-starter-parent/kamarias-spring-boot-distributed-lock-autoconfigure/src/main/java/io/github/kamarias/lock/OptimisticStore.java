@@ -0,0 +1,56 @@
+package io.github.kamarias.lock;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * 乐观并发的带版本号存储
+ * 读取时得到值和版本号，写入时比较版本号，一致才写入并把版本号加一；
+ * 单个值的读-改-写不需要加锁，没有冲突时写入只需一次请求
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 10:00
+ */
+public interface OptimisticStore {
+
+	/**
+	 * 读取值和版本号
+	 * @param key 键
+	 * @return 不存在时值为 null，版本号为 0
+	 */
+	Versioned get(String key);
+
+	/**
+	 * 版本号一致时写入
+	 * @param key 键
+	 * @param expectedVersion 读取时的版本号，值不存在时为 0
+	 * @param value 新的值
+	 * @param expireMillis 过期时间，小于等于 0 表示不过期
+	 * @return 写入后的值和版本号
+	 * @throws VersionConflictException 版本号不一致，异常中携带最新的值
+	 */
+	Versioned compareAndSet(String key, long expectedVersion, String value, long expireMillis);
+
+	/**
+	 * 读-改-写，冲突时用最新的值重新计算
+	 * @param key 键
+	 * @param updater 根据当前值计算新值，当前值不存在时传入 null，可能被调用多次，不应有副作用
+	 * @param expireMillis 过期时间，小于等于 0 表示不过期
+	 * @param maxRetries 冲突后的最大重试次数
+	 * @return 写入后的值和版本号
+	 * @throws VersionConflictException 重试次数用完仍然冲突
+	 */
+	default Versioned update(String key, UnaryOperator<String> updater, long expireMillis, int maxRetries) {
+		Versioned current = get(key);
+		for (int attempt = 0; ; attempt++) {
+			try {
+				return compareAndSet(key, current.getVersion(), updater.apply(current.getValue()), expireMillis);
+			} catch (VersionConflictException e) {
+				if (attempt >= maxRetries) {
+					throw e;
+				}
+				// 冲突结果中已有最新值，不需要重新读取
+				current = e.getCurrent();
+			}
+		}
+	}
+}
@@ -0,0 +1,473 @@
+package io.github.kamarias.lock;
+
+import io.lettuce.core.RedisURI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 多个独立 Redis 节点上的多数派分布式锁（Redlock）
+ * 同时向所有节点加锁，多数节点成功且扣除耗时和时钟漂移后仍在有效期内才算获取成功；
+ * 失败或释放时删除所有节点上自己的锁。单个节点故障转移或变慢不会把同一把锁交给两个持有者，
+ * 获取耗时取决于最快的多数节点
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/25 10:15
+ */
+public class RedLockDistributedLock extends AbstractDistributedLock implements DisposableBean {
+
+    /**
+     * 自动续期锁的过期时间
+     */
+    private static final long WATCHDOG_LEASE_MILLIS = 30 * 1000L;
+
+    /**
+     * 单次续期请求最多携带的锁数量
+     */
+    private static final int RENEW_BATCH_SIZE = 500;
+
+    /**
+     * 时钟漂移系数，有效期按过期时间的比例扣除
+     */
+    private static final double DEFAULT_CLOCK_DRIFT_FACTOR = 0.01;
+
+    /**
+     * 每个节点的并行访问线程数，线程池大小按节点数量成比例限定
+     */
+    private static final int THREADS_PER_NODE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RedLockDistributedLock.class);
+
+    /**
+     * 解锁lua脚本，只删除自己持有的锁
+     */
+    private static final String UNLOCK_LUA;
+
+    /**
+     * 批量续期lua脚本，返回已不再持有的锁的下标
+     */
+    private static final String RENEW_LUA;
+
+    private static final RedisScript<Long> UNLOCK_LUA_SCRIPT;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RENEW_LUA_SCRIPT;
+
+    static {
+        UNLOCK_LUA = "if redis.call('get', KEYS[1]) == ARGV[1] " +
+                "then " +
+                "return redis.call('del', KEYS[1]) " +
+                "else " +
+                "return 0 " +
+                "end";
+        RENEW_LUA = "local lost = {} " +
+                "for i, key in ipairs(KEYS) do " +
+                "    if redis.call('get', key) == ARGV[i + 1] " +
+                "    then " +
+                "        redis.call('pexpire', key, tonumber(ARGV[1])) " +
+                "    else " +
+                "        table.insert(lost, i) " +
+                "    end " +
+                "end " +
+                "return lost";
+        UNLOCK_LUA_SCRIPT = new DefaultRedisScript<>(UNLOCK_LUA, Long.class);
+        RENEW_LUA_SCRIPT = new DefaultRedisScript<>(RENEW_LUA, List.class);
+    }
+
+    private final List<StringRedisTemplate> nodes;
+
+    /**
+     * 多数派数量
+     */
+    private final int quorum;
+
+    private final double clockDriftFactor;
+
+    /**
+     * 并行访问各节点的有界线程池，超出的请求排队，排队时间计入加锁耗时
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 续期调度线程
+     */
+    private final ScheduledExecutorService scheduler;
+
+    private final LockWatchdog watchdog;
+
+    /**
+     * 由本实例创建的连接，销毁时一并关闭
+     */
+    private final List<LettuceConnectionFactory> ownedConnections;
+
+    private volatile LockObserver lockObserver = LockObserver.NOOP;
+
+    /**
+     * 当前线程持有的锁，key 为锁名
+     */
+    private final ThreadLocal<Map<String, LockHandle>> context = ThreadLocal.withInitial(HashMap::new);
+
+    public RedLockDistributedLock(List<StringRedisTemplate> nodes) {
+        this(nodes, DEFAULT_CLOCK_DRIFT_FACTOR);
+    }
+
+    public RedLockDistributedLock(List<StringRedisTemplate> nodes, double clockDriftFactor) {
+        this(nodes, clockDriftFactor, Collections.emptyList());
+    }
+
+    private RedLockDistributedLock(List<StringRedisTemplate> nodes, double clockDriftFactor, List<LettuceConnectionFactory> ownedConnections) {
+        super();
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("redlock requires at least one redis node");
+        }
+        this.nodes = new ArrayList<>(nodes);
+        this.quorum = nodes.size() / 2 + 1;
+        this.clockDriftFactor = clockDriftFactor;
+        this.ownedConnections = ownedConnections;
+        CustomizableThreadFactory nodeThreadFactory = new CustomizableThreadFactory("distributed-lock-redlock-");
+        nodeThreadFactory.setDaemon(true);
+        this.executor = Executors.newFixedThreadPool(nodes.size() * THREADS_PER_NODE, nodeThreadFactory);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("distributed-lock-scheduler-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.watchdog = new LockWatchdog(scheduler, this::renew, WATCHDOG_LEASE_MILLIS, RENEW_BATCH_SIZE);
+    }
+
+    /**
+     * 按节点地址创建，每个节点一个独立连接
+     *
+     * @param uris             节点地址，格式 redis[s]://[[username:]password@]host[:port][/database]，
+     *                         rediss 使用 TLS；只支持单机节点，哨兵和 unix socket 地址抛出 {@link IllegalArgumentException}
+     * @param nodeTimeout      单个节点的命令超时时间，应远小于锁的过期时间
+     * @param clockDriftFactor 时钟漂移系数
+     * @return 多数派锁
+     */
+    public static RedLockDistributedLock create(List<String> uris, Duration nodeTimeout, double clockDriftFactor) {
+        List<StringRedisTemplate> templates = new ArrayList<>(uris.size());
+        List<LettuceConnectionFactory> connections = new ArrayList<>(uris.size());
+        for (String uri : uris) {
+            LettuceConnectionFactory connectionFactory = connectionFactory(uri, nodeTimeout);
+            connectionFactory.afterPropertiesSet();
+            connections.add(connectionFactory);
+            templates.add(new StringRedisTemplate(connectionFactory));
+        }
+        return new RedLockDistributedLock(templates, clockDriftFactor, connections);
+    }
+
+    /**
+     * 按 Lettuce 的地址格式解析单个节点，支持 ACL 用户名、只有密码的写法和 TLS
+     */
+    private static LettuceConnectionFactory connectionFactory(String uri, Duration nodeTimeout) {
+        RedisURI redisURI = RedisURI.create(uri);
+        if (redisURI.getHost() == null || !redisURI.getSentinels().isEmpty()) {
+            throw new IllegalArgumentException("redlock node must be a standalone redis:// or rediss:// uri: " + uri);
+        }
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(redisURI.getHost(), redisURI.getPort());
+        configuration.setDatabase(redisURI.getDatabase());
+        if (redisURI.getUsername() != null) {
+            configuration.setUsername(redisURI.getUsername());
+        }
+        if (redisURI.getPassword() != null) {
+            configuration.setPassword(RedisPassword.of(redisURI.getPassword()));
+        }
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder builder = LettuceClientConfiguration.builder()
+                .commandTimeout(nodeTimeout);
+        if (redisURI.isSsl()) {
+            LettuceClientConfiguration.LettuceSslClientConfigurationBuilder ssl = builder.useSsl();
+            if (!redisURI.isVerifyPeer()) {
+                ssl.disablePeerVerification();
+            }
+            if (redisURI.isStartTls()) {
+                ssl.startTls();
+            }
+        }
+        return new LettuceConnectionFactory(configuration, builder.build());
+    }
+
+    /**
+     * 设置锁事件观察者
+     *
+     * @param lockObserver 观察者
+     */
+    public void setLockObserver(LockObserver lockObserver) {
+        this.lockObserver = lockObserver;
+        this.watchdog.setObserver(lockObserver);
+    }
+
+    @Override
+    public boolean lock(String key, long expire, int retryTimes, long sleepMillis) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle != null) {
+            // 当前线程重入
+            handle.incrementHoldCount();
+            return true;
+        }
+        long maxWait = retryTimes > Long.MAX_VALUE / Math.max(sleepMillis, 1L) ? Long.MAX_VALUE : retryTimes * sleepMillis;
+        // 随机等待，避免多个客户端同时重试再次各自只拿到少数节点
+        handle = acquire(key, expire, maxWait, (attempt, previousDelay, lockTtl) -> ThreadLocalRandom.current().nextLong(sleepMillis / 2, sleepMillis + 1));
+        if (handle == null) {
+            return false;
+        }
+        lockMap.put(key, handle);
+        return true;
+    }
+
+    @Override
+    public LockHandle acquire(String key, long expire, Duration maxWait) {
+        return acquire(key, expire, toMillis(maxWait), DEFAULT_BACKOFF);
+    }
+
+    /**
+     * 在最长等待时间内获取锁，返回的锁不与当前线程绑定
+     *
+     * @param key     锁名
+     * @param expire  锁的过期时间，-1 表示自动续期
+     * @param maxWait 最长等待时间
+     * @param backoff 获取失败后的退避策略
+     * @return 获取成功返回锁，失败返回 null
+     */
+    private LockHandle acquire(String key, long expire, long maxWait, BackoffStrategy backoff) {
+        LockHandle handle = new LockHandle(key, UUID.randomUUID().toString(), expire, this);
+        long start = System.currentTimeMillis();
+        long delay = 0L;
+        int attempt = 0;
+        // 如果获取锁失败,在最长等待时间内重试
+        while (!tryLock(handle)) {
+            long remaining = maxWait - (System.currentTimeMillis() - start);
+            if (remaining <= 0) {
+                return null;
+            }
+            delay = backoff.nextDelay(++attempt, delay, -1L);
+            try {
+                LOGGER.debug("lock failed, retrying after {}ms", delay);
+                lockObserver.onRetry(key);
+                Thread.sleep(Math.max(0L, Math.min(delay, remaining)));
+            } catch (InterruptedException e) {
+                LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (expire == -1L) {
+            watchdog.register(handle);
+        }
+        return handle;
+    }
+
+    @Override
+    public boolean releaseLock(String key) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle == null) {
+            return false;
+        }
+        if (handle.getHoldCount() <= 1) {
+            lockMap.remove(key);
+            if (lockMap.isEmpty()) {
+                context.remove();
+            }
+        }
+        return release(handle);
+    }
+
+    @Override
+    public boolean release(LockHandle handle) {
+        int remaining = handle.decrementHoldCount();
+        if (remaining != 0) {
+            // 还有重入未退出，或者已经释放过
+            return remaining > 0;
+        }
+        watchdog.cancel(handle.getKey(), handle.getOwner());
+        return unlockAll(handle.getKey(), handle.getOwner()) >= quorum;
+    }
+
+    /**
+     * 多数派锁不生成防护令牌，各节点的计数器相互独立，得不到全局递增的值，令牌始终为 0
+     */
+    @Override
+    public LockHandle heldLock(String key) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (lockMap.isEmpty()) {
+            context.remove();
+        }
+        return handle;
+    }
+
+    /**
+     * 并行向所有节点加锁一次，多数节点成功即返回，不等待慢节点
+     *
+     * @param handle 待获取的锁
+     * @return 多数节点成功且仍在有效期内
+     */
+    private boolean tryLock(LockHandle handle) {
+        String key = handle.getKey();
+        String owner = handle.getOwner();
+        long ttl = handle.getLeaseMillis() == -1L ? WATCHDOG_LEASE_MILLIS : handle.getLeaseMillis();
+        int size = nodes.size();
+        // 0 未完成 1 成功 2 失败
+        AtomicIntegerArray results = new AtomicIntegerArray(size);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch decided = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        // 放弃本次加锁后，晚到的成功结果由节点线程自己删除
+        boolean[] abandoned = new boolean[1];
+        Object abandonMonitor = new Object();
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            StringRedisTemplate node = nodes.get(i);
+            executor.execute(() -> {
+                boolean locked;
+                try {
+                    locked = Boolean.TRUE.equals(node.opsForValue().setIfAbsent(key, owner, ttl, TimeUnit.MILLISECONDS));
+                } catch (Exception e) {
+                    LOGGER.debug("redlock node {} lock occurred an exception: {}", index, e.getMessage());
+                    locked = false;
+                }
+                results.set(index, locked ? 1 : 2);
+                if (locked ? succeeded.incrementAndGet() >= quorum : failed.incrementAndGet() > size - quorum) {
+                    decided.countDown();
+                }
+                if (locked) {
+                    synchronized (abandonMonitor) {
+                        if (abandoned[0]) {
+                            unlock(node, key, owner);
+                        }
+                    }
+                }
+            });
+        }
+        try {
+            decided.await(ttl, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        long drift = (long) (ttl * clockDriftFactor) + 2;
+        long validity = ttl - elapsed - drift;
+        if (succeeded.get() >= quorum && validity > 0 && !Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        // 失败时删除已经拿到的少数节点上的锁
+        synchronized (abandonMonitor) {
+            abandoned[0] = true;
+        }
+        for (int i = 0; i < size; i++) {
+            if (results.get(i) == 1) {
+                StringRedisTemplate node = nodes.get(i);
+                executor.execute(() -> unlock(node, key, owner));
+            }
+        }
+        LOGGER.debug("redlock failed, key: {}, locked nodes: {}, validity: {}", key, succeeded.get(), validity);
+        return false;
+    }
+
+    /**
+     * 并行删除所有节点上自己的锁
+     *
+     * @return 删除成功的节点数
+     */
+    private int unlockAll(String key, String owner) {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(nodes.size());
+        for (StringRedisTemplate node : nodes) {
+            futures.add(CompletableFuture.supplyAsync(() -> unlock(node, key, owner), executor));
+        }
+        int released = 0;
+        for (CompletableFuture<Boolean> future : futures) {
+            if (future.join()) {
+                released++;
+            }
+        }
+        return released;
+    }
+
+    private boolean unlock(StringRedisTemplate node, String key, String owner) {
+        try {
+            Long result = node.execute(UNLOCK_LUA_SCRIPT, Collections.singletonList(key), owner);
+            return result != null && result > 0;
+        } catch (Exception e) {
+            LOGGER.debug("redlock node unlock occurred an exception: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 在所有节点上批量续期，少于多数节点续期成功的锁视为失去
+     */
+    private Collection<LockWatchdog.Lease> renew(List<LockWatchdog.Lease> leases, long leaseMillis) {
+        List<String> keys = new ArrayList<>(leases.size());
+        Object[] args = new Object[leases.size() + 1];
+        args[0] = String.valueOf(leaseMillis);
+        for (int i = 0; i < leases.size(); i++) {
+            keys.add(leases.get(i).getKey());
+            args[i + 1] = leases.get(i).getOwner();
+        }
+        List<CompletableFuture<List<?>>> futures = new ArrayList<>(nodes.size());
+        for (StringRedisTemplate node : nodes) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return (List<?>) node.execute(RENEW_LUA_SCRIPT, keys, args);
+                } catch (Exception e) {
+                    LOGGER.debug("redlock node renew occurred an exception: {}", e.getMessage());
+                    return null;
+                }
+            }, executor));
+        }
+        int[] renewed = new int[leases.size()];
+        for (CompletableFuture<List<?>> future : futures) {
+            List<?> lost = future.join();
+            if (lost == null) {
+                continue;
+            }
+            boolean[] lostFlags = new boolean[leases.size()];
+            for (Object index : lost) {
+                // lua 下标从 1 开始
+                lostFlags[((Number) index).intValue() - 1] = true;
+            }
+            for (int i = 0; i < renewed.length; i++) {
+                if (!lostFlags[i]) {
+                    renewed[i]++;
+                }
+            }
+        }
+        List<LockWatchdog.Lease> result = new ArrayList<>();
+        for (int i = 0; i < renewed.length; i++) {
+            if (renewed[i] < quorum) {
+                result.add(leases.get(i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        for (LettuceConnectionFactory connectionFactory : ownedConnections) {
+            connectionFactory.destroy();
+        }
+    }
+
+}
@@ -3,28 +3,126 @@ package io.github.kamarias.lock;
 import io.github.kamarias.lock.AbstractDistributedLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ClassUtils;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 分布式Redis锁具体实现
+ * 锁以 hash 结构保存持锁标识和重入次数，同一线程重入只增加本地计数
+ * 本身即为写锁，{@link #readLock()} 返回同一锁名下可共享的读锁
  *
  * @author wangyuxing
  */
-public class RedisDistributedLock extends AbstractDistributedLock {
+public class RedisDistributedLock extends AbstractDistributedLock implements DistributedReadWriteLock, AsyncDistributedLock, DisposableBean {
+
+    /**
+     * 自动续期锁的过期时间
+     */
+    private static final long WATCHDOG_LEASE_MILLIS = 30 * 1000L;
+
+    /**
+     * 单次续期请求最多携带的锁数量
+     */
+    private static final int RENEW_BATCH_SIZE = 500;
+
+    /**
+     * 没有 Lettuce 共享连接时异步操作的线程数
+     */
+    private static final int ASYNC_FALLBACK_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * 异步获取锁时，未知剩余过期时间的重试间隔
+     */
+    private static final long ASYNC_RETRY_MILLIS = 100L;
+
+    private static final boolean LETTUCE_PRESENT = ClassUtils.isPresent("io.lettuce.core.RedisClient", RedisDistributedLock.class.getClassLoader());
 
     private final Logger LOGGER = LoggerFactory.getLogger(RedisDistributedLock.class);
 
     private final StringRedisTemplate redisTemplate;
 
-    private final ThreadLocal<Map<String, String>> context = new ThreadLocal<Map<String, String>>() {
+    /**
+     * 锁释放通知订阅者，为空时退化为固定间隔轮询
+     */
+    private final RedisLockReleaseSubscriber releaseSubscriber;
+
+    /**
+     * 锁实例共用的调度线程
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 自动续期看门狗
+     */
+    private final LockWatchdog watchdog;
+
+    private volatile LockObserver lockObserver = LockObserver.NOOP;
+
+    /**
+     * 是否为集群连接，为空表示尚未检查
+     */
+    private volatile Boolean cluster;
+
+    /**
+     * 是否生成防护令牌，默认关闭，关闭时令牌为 0
+     */
+    private volatile boolean fencingTokens = false;
+
+    /**
+     * 本地锁合并，为空时每个线程各自竞争分布式锁
+     */
+    private volatile LocalLockCoalescer localCoalescer;
+
+    /**
+     * Lettuce 异步脚本执行器，为空时异步操作退化为在 {@link #asyncFallback} 中同步执行
+     */
+    private volatile LettuceScriptExecutor scriptExecutor;
+
+    /**
+     * 没有 Lettuce 共享连接时执行异步操作的有界线程池，不占用公共线程池
+     */
+    private volatile ExecutorService asyncFallback;
+
+    private volatile boolean scriptExecutorResolved;
+
+    /**
+     * 是否为共享锁（读锁）
+     */
+    private final boolean shared;
+
+    /**
+     * 同一锁名下的写锁
+     */
+    private final RedisDistributedLock writeLock;
+
+    /**
+     * 同一锁名下的读锁
+     */
+    private final RedisDistributedLock readLock;
+
+    /**
+     * 当前线程持有的锁，同一线程重入时只增加本地计数，不再请求 redis
+     */
+    private final ThreadLocal<Map<String, LockHandle>> context = new ThreadLocal<Map<String, LockHandle>>() {
         @Override
-        public Map<String, String> get() {
-            Map<String, String> lockMap = super.get();
+        public Map<String, LockHandle> get() {
+            Map<String, LockHandle> lockMap = super.get();
             if (lockMap == null) {
                 lockMap = new HashMap<>(16);
                 this.set(lockMap);
@@ -44,129 +142,946 @@ public class RedisDistributedLock extends AbstractDistributedLock {
     private static final String UNLOCK_LUA;
 
     /**
-     * 续期lua脚本
+     * 批量续期lua脚本
+     */
+    private static final String RENEW_LUA;
+
+    /**
+     * 本地移交前确认持有并刷新锁的lua脚本
+     */
+    private static final String HANDOFF_LUA;
+
+    /**
+     * 读锁加锁lua脚本
+     */
+    private static final String READ_LOCK_LUA;
+
+    /**
+     * 读锁解锁lua脚本
+     */
+    private static final String READ_UNLOCK_LUA;
+
+    /**
+     * 多个锁同时加锁lua脚本
+     */
+    private static final String MULTI_LOCK_LUA;
+
+    /**
+     * 多个锁同时解锁lua脚本
      */
-    private static final String DELAY_TIME_LUA;
+    private static final String MULTI_UNLOCK_LUA;
 
     /**
      * 加锁lua脚本对象
      */
-    private final DefaultRedisScript<Long> LOCK_LUA_SCRIPT = new DefaultRedisScript<>(LOCK_LUA, Long.class);
+    private final DefaultRedisScript<List> LOCK_LUA_SCRIPT;
 
     /**
      * 解锁lua脚本对象
      */
-    private final DefaultRedisScript<Long> UNLOCK_LUA_SCRIPT = new DefaultRedisScript<>(UNLOCK_LUA, Long.class);
+    private final DefaultRedisScript<Long> UNLOCK_LUA_SCRIPT;
 
     /**
-     * 续期lua脚本对象
+     * 多个锁同时加锁lua脚本对象
      */
-    private final RedisScript<Long> DELAY_TIME_LUA_SCRIPT = new DefaultRedisScript<>(DELAY_TIME_LUA, Long.class);
+    private final DefaultRedisScript<Long> MULTI_LOCK_LUA_SCRIPT = new DefaultRedisScript<>(MULTI_LOCK_LUA, Long.class);
+
+    /**
+     * 多个锁同时解锁lua脚本对象
+     */
+    private final DefaultRedisScript<Long> MULTI_UNLOCK_LUA_SCRIPT = new DefaultRedisScript<>(MULTI_UNLOCK_LUA, Long.class);
+
+    /**
+     * 批量续期lua脚本对象
+     */
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> RENEW_LUA_SCRIPT = new DefaultRedisScript<>(RENEW_LUA, List.class);
+
+    /**
+     * 本地移交lua脚本对象
+     */
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> HANDOFF_LUA_SCRIPT = new DefaultRedisScript<>(HANDOFF_LUA, List.class);
 
     static {
-        // 加锁成功返回 1，否则返回剩余过期时间
-        LOCK_LUA = "if redis.call('setnx', KEYS[1], ARGV[1]) == 1 " +
+        // 锁为 hash 结构：持锁标识 -> 重入次数，KEYS[2] 为防护令牌计数器，ARGV[3] 为 1 时生成令牌
+        // 加锁成功返回 {1, 令牌}，同一持锁标识重入时令牌不变；失败返回 {0, 剩余过期时间}
+        LOCK_LUA = "local held = redis.call('hexists', KEYS[1], ARGV[1]) == 1 " +
+                "if held or redis.call('exists', KEYS[1]) == 0 " +
                 "then " +
-                "return redis.call('pexpire', KEYS[1], tonumber(ARGV[2])) " +
+                "local token = 0 " +
+                "if ARGV[3] == '1' then " +
+                "if held then token = tonumber(redis.call('get', KEYS[2]) or '0') else token = redis.call('incr', KEYS[2]) end " +
+                "end " +
+                "redis.call('hincrby', KEYS[1], ARGV[1], 1) " +
+                "redis.call('pexpire', KEYS[1], tonumber(ARGV[2])) " +
+                "return {1, token} " +
                 "else " +
-                "return redis.call('pttl', KEYS[1])" +
+                "return {0, redis.call('pttl', KEYS[1])} " +
                 "end";
-        UNLOCK_LUA = "if redis.call(\"get\",KEYS[1]) == ARGV[1] " +
+        // 重入次数减到 0 时删除锁，传入 ARGV[2] 时把锁名发布到该频道，唤醒等待中的线程
+        UNLOCK_LUA = "if redis.call(\"hexists\", KEYS[1], ARGV[1]) == 0 " +
                 "then " +
-                "    return redis.call(\"del\",KEYS[1]) " +
-                "else " +
                 "    return 0 " +
-                "end ";
-        DELAY_TIME_LUA = "if redis.call(\"get\",KEYS[1]) == ARGV[1] " +
+                "end " +
+                "if redis.call(\"hincrby\", KEYS[1], ARGV[1], -1) > 0 " +
+                "then " +
+                "    return 1 " +
+                "end " +
+                "redis.call(\"del\", KEYS[1]) " +
+                "if ARGV[2] then redis.call(\"publish\", ARGV[2], KEYS[1]) end " +
+                "return 1";
+        // ARGV[1] 为过期时间，ARGV[i + 1] 为 KEYS[i] 的持锁标识，返回已不再持有的锁的下标
+        RENEW_LUA = "local lost = {} " +
+                "for i, key in ipairs(KEYS) do " +
+                "    if redis.call(\"hexists\", key, ARGV[i + 1]) == 1 " +
+                "    then " +
+                "        redis.call(\"pexpire\", key, tonumber(ARGV[1])) " +
+                "    else " +
+                "        table.insert(lost, i) " +
+                "    end " +
+                "end " +
+                "return lost";
+        // ARGV[2] 大于 0 时刷新过期时间，ARGV[3] 为 1 时为下一个持有者生成新令牌
+        // 仍持有返回 {1, 令牌}，已不再持有返回 {0, 0}
+        HANDOFF_LUA = "if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then return {0, 0} end " +
+                "if tonumber(ARGV[2]) > 0 then redis.call('pexpire', KEYS[1], tonumber(ARGV[2])) end " +
+                "local token = 0 " +
+                "if ARGV[3] == '1' then token = redis.call('incr', KEYS[2]) end " +
+                "return {1, token}";
+        // 先检查全部锁都可获取再统一加锁，要么全部成功要么都不持有；失败返回阻塞的锁的剩余过期时间
+        MULTI_LOCK_LUA = "for i, key in ipairs(KEYS) do " +
+                "    if redis.call('exists', key) == 1 and redis.call('hexists', key, ARGV[1]) == 0 " +
+                "    then " +
+                "        return redis.call('pttl', key) " +
+                "    end " +
+                "end " +
+                "for i, key in ipairs(KEYS) do " +
+                "    redis.call('hincrby', key, ARGV[1], 1) " +
+                "    redis.call('pexpire', key, tonumber(ARGV[2])) " +
+                "end " +
+                "return nil";
+        // 返回释放的锁数量
+        MULTI_UNLOCK_LUA = "local released = 0 " +
+                "for i, key in ipairs(KEYS) do " +
+                "    if redis.call(\"hexists\", key, ARGV[1]) == 1 " +
+                "    then " +
+                "        if redis.call(\"hincrby\", key, ARGV[1], -1) <= 0 " +
+                "        then " +
+                "            redis.call(\"del\", key) " +
+                "            if ARGV[2] then redis.call(\"publish\", ARGV[2], key) end " +
+                "        end " +
+                "        released = released + 1 " +
+                "    end " +
+                "end " +
+                "return released";
+        // 读锁 hash 中多一个 mode 字段，没有 mode 字段的锁为写锁；读锁之间只累加各自的重入次数
+        // 每个读锁持有者各自取得一个令牌，与写锁共用同一个计数器
+        READ_LOCK_LUA = "local mode = redis.call('hget', KEYS[1], 'mode') " +
+                "if (mode == false and redis.call('exists', KEYS[1]) == 0) or mode == 'read' " +
                 "then " +
-                "return redis.call(\"pexpire\", KEYS[1], tonumber(ARGV[2]))" +
-                "else" +
-                "  return 0 " +
+                "local token = 0 " +
+                "if ARGV[3] == '1' then " +
+                "if redis.call('hexists', KEYS[1], ARGV[1]) == 1 then token = tonumber(redis.call('get', KEYS[2]) or '0') else token = redis.call('incr', KEYS[2]) end " +
+                "end " +
+                "redis.call('hset', KEYS[1], 'mode', 'read') " +
+                "redis.call('hincrby', KEYS[1], ARGV[1], 1) " +
+                "if redis.call('pttl', KEYS[1]) < tonumber(ARGV[2]) then redis.call('pexpire', KEYS[1], tonumber(ARGV[2])) end " +
+                "return {1, token} " +
+                "else " +
+                "return {0, redis.call('pttl', KEYS[1])} " +
                 "end";
+        // 最后一个读锁释放时删除锁并发布通知
+        READ_UNLOCK_LUA = "if redis.call(\"hexists\", KEYS[1], ARGV[1]) == 0 " +
+                "then " +
+                "    return 0 " +
+                "end " +
+                "if redis.call(\"hincrby\", KEYS[1], ARGV[1], -1) > 0 " +
+                "then " +
+                "    return 1 " +
+                "end " +
+                "redis.call(\"hdel\", KEYS[1], ARGV[1]) " +
+                "if redis.call(\"hlen\", KEYS[1]) <= 1 " +
+                "then " +
+                "    redis.call(\"del\", KEYS[1]) " +
+                "    if ARGV[2] then redis.call(\"publish\", ARGV[2], KEYS[1]) end " +
+                "end " +
+                "return 1";
     }
 
     public RedisDistributedLock(StringRedisTemplate redisTemplate) {
+        this(redisTemplate, null);
+    }
+
+    public RedisDistributedLock(StringRedisTemplate redisTemplate, RedisLockReleaseSubscriber releaseSubscriber) {
         super();
         this.redisTemplate = redisTemplate;
+        this.releaseSubscriber = releaseSubscriber;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("distributed-lock-scheduler-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.watchdog = new LockWatchdog(scheduler, this::renew, WATCHDOG_LEASE_MILLIS, RENEW_BATCH_SIZE);
+        this.LOCK_LUA_SCRIPT = new DefaultRedisScript<>(LOCK_LUA, List.class);
+        this.UNLOCK_LUA_SCRIPT = new DefaultRedisScript<>(UNLOCK_LUA, Long.class);
+        this.shared = false;
+        this.writeLock = this;
+        this.readLock = new RedisDistributedLock(this);
+    }
+
+    /**
+     * 读锁，与写锁共用连接、订阅者和看门狗
+     *
+     * @param writeLock 同一锁名下的写锁
+     */
+    private RedisDistributedLock(RedisDistributedLock writeLock) {
+        super();
+        this.redisTemplate = writeLock.redisTemplate;
+        this.releaseSubscriber = writeLock.releaseSubscriber;
+        this.scheduler = writeLock.scheduler;
+        this.watchdog = writeLock.watchdog;
+        this.LOCK_LUA_SCRIPT = new DefaultRedisScript<>(READ_LOCK_LUA, List.class);
+        this.UNLOCK_LUA_SCRIPT = new DefaultRedisScript<>(READ_UNLOCK_LUA, Long.class);
+        this.shared = true;
+        this.writeLock = writeLock;
+        this.readLock = this;
+    }
+
+    @Override
+    public DistributedLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public DistributedLock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * 设置锁事件观察者，读锁共用
+     *
+     * @param lockObserver 观察者
+     */
+    public void setLockObserver(LockObserver lockObserver) {
+        this.lockObserver = lockObserver;
+        this.watchdog.setObserver(lockObserver);
+        if (readLock != this) {
+            readLock.lockObserver = lockObserver;
+        }
+    }
+
+    /**
+     * 设置是否生成防护令牌，读锁共用
+     * 开启时每个锁名在 redis 中保留一个不过期的计数器，保证令牌在锁删除后仍然递增
+     *
+     * @param fencingTokens 是否生成
+     */
+    public void setFencingTokens(boolean fencingTokens) {
+        this.fencingTokens = fencingTokens;
+        if (readLock != this) {
+            readLock.fencingTokens = fencingTokens;
+        }
+    }
+
+    /**
+     * 开启本地锁合并，同一 JVM 内同一把锁只有一个线程竞争分布式锁，只对写锁生效；
+     * lockAll/releaseAll 不经过本地合并，同一把锁不要混用两种方式
+     *
+     * @param maxHandoffs 连续本地移交的最大次数
+     */
+    public void setLocalCoalescing(int maxHandoffs) {
+        this.localCoalescer = new LocalLockCoalescer(maxHandoffs, this::release);
     }
 
     @Override
     public boolean lock(String key, long expire, int retryTimes, long sleepMillis) {
-        boolean result = setRedis(key, expire);
-        // 如果获取锁失败,按照传入的重试次数进行重试
-        while ((!result) && retryTimes-- > 0) {
+        return lock(key, expire, maxWait(retryTimes, sleepMillis), BackoffStrategy.fixed(sleepMillis));
+    }
+
+    /**
+     * 按锁的剩余过期时间退避，不会等到锁过期之后
+     */
+    @Override
+    public boolean tryLock(String key, long expire, Duration maxWait, BackoffStrategy backoff) {
+        return lock(key, expire, toMillis(maxWait), BackoffStrategy.ttlAware(backoff));
+    }
+
+    private boolean lock(String key, long expire, long maxWait, BackoffStrategy backoff) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle != null) {
+            // 当前线程重入
+            handle.incrementHoldCount();
+            return true;
+        }
+        if (localCoalescer != null && !shared) {
+            handle = acquireCoalesced(key, expire, maxWait, backoff);
+        } else {
+            handle = acquire(key, expire, maxWait, backoff);
+        }
+        if (handle == null) {
+            return false;
+        }
+        lockMap.put(key, handle);
+        return true;
+    }
+
+    @Override
+    public LockHandle heldLock(String key) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (lockMap.isEmpty()) {
+            context.remove();
+        }
+        return handle;
+    }
+
+    /**
+     * 先在本地排队，成为本地持有者后优先接手上一个持有者移交的分布式锁，没有时再远程获取
+     */
+    private LockHandle acquireCoalesced(String key, long expire, long maxWait, BackoffStrategy backoff) {
+        long start = System.currentTimeMillis();
+        LocalLockCoalescer.Slot slot;
+        try {
+            slot = localCoalescer.enter(key, maxWait);
+        } catch (InterruptedException e) {
+            LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (slot == null) {
+            return null;
+        }
+        LockHandle handle = slot.takeHandedOff();
+        if (handle != null) {
+            return handle;
+        }
+        // 本地排队已经消耗了部分等待时间
+        long remaining = maxWait - (System.currentTimeMillis() - start);
+        handle = acquire(key, expire, Math.max(remaining, 0L), backoff);
+        if (handle == null) {
+            localCoalescer.exit(key, slot);
+        }
+        return handle;
+    }
+
+    /**
+     * 本地还有等待者时把分布式锁移交给下一个等待者，否则远程释放
+     */
+    private boolean releaseCoalesced(LockHandle handle) {
+        String key = handle.getKey();
+        LocalLockCoalescer.Slot slot = localCoalescer.slot(key);
+        if (slot == null || !slot.isHeldByCurrentThread()) {
+            // 开启本地合并之前获取的锁
+            return release(handle);
+        }
+        try {
+            if (slot.canHandOff() && refreshLease(handle)) {
+                slot.handOff(handle);
+                return true;
+            }
+            slot.resetHandoffs();
+            return release(handle);
+        } finally {
+            localCoalescer.exit(key, slot);
+        }
+    }
+
+    /**
+     * 移交前刷新固定过期时间的锁，自动续期的锁由看门狗维持；
+     * 开启防护令牌时为下一个持有者生成新令牌，每次获取的令牌仍然递增
+     *
+     * @param handle 持有的锁
+     * @return 是否仍然持有
+     */
+    private boolean refreshLease(LockHandle handle) {
+        if (handle.isLost()) {
+            // 看门狗已判定失去的锁不能移交
+            return false;
+        }
+        long leaseMillis = handle.getLeaseMillis();
+        if (leaseMillis == -1L && !fencingTokens) {
+            return true;
+        }
+        try {
+            List<?> reply = redisTemplate.execute(HANDOFF_LUA_SCRIPT, lockKeys(handle.getKey()),
+                    handle.getOwner(), String.valueOf(leaseMillis == -1L ? 0L : leaseMillis), fencingTokens ? "1" : "0");
+            if (reply == null || reply.size() < 2 || ((Number) reply.get(0)).longValue() != 1L) {
+                return false;
+            }
+            if (fencingTokens) {
+                handle.setFencingToken(((Number) reply.get(1)).longValue());
+            }
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("refresh lock occurred an exception", e);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean releaseLock(String key) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle == null) {
+            return false;
+        }
+        if (handle.getHoldCount() <= 1) {
+            // 只移除释放的这把锁，不影响当前线程持有的其他锁
+            lockMap.remove(key);
+            if (lockMap.isEmpty()) {
+                context.remove();
+            }
+            if (localCoalescer != null && !shared) {
+                return releaseCoalesced(handle);
+            }
+        }
+        return release(handle);
+    }
+
+    /**
+     * 写锁在一次请求内获取全部锁，读锁逐个获取；
+     * 集群模式下一个脚本只能访问同一槽位的键，锁名不在同一槽位时也逐个获取；
+     * 不经过本地锁合并，直接竞争分布式锁
+     */
+    @Override
+    public boolean lockAll(Collection<String> keys, long expire, int retryTimes, long sleepMillis) {
+        if (shared || (isCluster() && !isSameSlot(keys))) {
+            return super.lockAll(keys, expire, retryTimes, sleepMillis);
+        }
+        Map<String, LockHandle> lockMap = context.get();
+        List<LockHandle> reentered = new ArrayList<>();
+        List<String> pending = new ArrayList<>(keys.size());
+        for (String key : new TreeSet<>(keys)) {
+            LockHandle handle = lockMap.get(key);
+            if (handle == null) {
+                pending.add(key);
+            } else {
+                reentered.add(handle);
+            }
+        }
+        if (!pending.isEmpty()) {
+            String owner = UUID.randomUUID().toString();
+            if (!acquireAll(pending, owner, expire, retryTimes, sleepMillis)) {
+                return false;
+            }
+            for (String key : pending) {
+                lockMap.put(key, new LockHandle(key, owner, expire, this));
+            }
+        }
+        // 当前线程已持有的锁只增加本地计数
+        for (LockHandle handle : reentered) {
+            handle.incrementHoldCount();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean releaseAll(Collection<String> keys) {
+        if (shared) {
+            return super.releaseAll(keys);
+        }
+        Map<String, LockHandle> lockMap = context.get();
+        // 需要真正释放的锁按持锁标识分组，同一次 lockAll 获取的锁只需一次请求
+        Map<String, List<String>> releasing = new HashMap<>(4);
+        boolean result = true;
+        for (String key : new TreeSet<>(keys)) {
+            LockHandle handle = lockMap.get(key);
+            if (handle == null) {
+                result = false;
+                continue;
+            }
+            if (handle.decrementHoldCount() == 0) {
+                lockMap.remove(key);
+                watchdog.cancel(handle.getKey(), handle.getOwner());
+                releasing.computeIfAbsent(handle.getOwner(), owner -> new ArrayList<>()).add(key);
+            }
+        }
+        if (lockMap.isEmpty()) {
+            context.remove();
+        }
+        for (Map.Entry<String, List<String>> entry : releasing.entrySet()) {
             try {
-                LOGGER.debug("lock failed, retrying..." + retryTimes);
-                Thread.sleep(sleepMillis);
+                Long released = releaseSubscriber == null
+                        ? this.redisTemplate.execute(MULTI_UNLOCK_LUA_SCRIPT, entry.getValue(), entry.getKey())
+                        : this.redisTemplate.execute(MULTI_UNLOCK_LUA_SCRIPT, entry.getValue(), entry.getKey(), releaseSubscriber.getChannel());
+                result &= released != null && released == entry.getValue().size();
+            } catch (Exception e) {
+                LOGGER.error("release lock occurred an exception", e);
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在一次请求内获取多个锁，失败时按锁的剩余过期时间重试
+     *
+     * @param keys        排好序的锁名
+     * @param owner       持锁标识
+     * @param expire      锁的过期时间，-1 表示自动续期
+     * @param retryTimes  获取锁重试次数
+     * @param sleepMillis 获取锁失败后 如果重试需要休眠的时间
+     * @return 是否全部获取成功
+     */
+    private boolean acquireAll(List<String> keys, String owner, long expire, int retryTimes, long sleepMillis) {
+        Long ttl = setRedisAll(keys, owner, expire);
+        while (ttl != null && retryTimes-- > 0) {
+            try {
+                LOGGER.debug("lock all failed, retrying..." + retryTimes);
+                lockObserver.onRetry(keys.toString());
+                Thread.sleep(ttl > 0 ? Math.min(ttl, sleepMillis) : sleepMillis);
             } catch (InterruptedException e) {
                 LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
                 Thread.currentThread().interrupt();
                 return false;
             }
-            result = setRedis(key, expire);
+            ttl = setRedisAll(keys, owner, expire);
         }
-        return result;
+        if (ttl != null) {
+            return false;
+        }
+        if (expire == -1L) {
+            for (String key : keys) {
+                watchdog.register(key, owner);
+            }
+        }
+        return true;
     }
 
-    private boolean setRedis(String key, long expire) {
+    /**
+     * 尝试一次获取全部锁
+     *
+     * @return 加锁成功返回 null，否则返回阻塞的锁的剩余过期时间，未知时返回 -1
+     */
+    private Long setRedisAll(List<String> keys, String owner, long expire) {
         try {
-            String uuid = UUID.randomUUID().toString();
-            Map<String, String> lockMap = context.get();
-            lockMap.put(key, uuid);
-            Long result = this.redisTemplate.execute(LOCK_LUA_SCRIPT,
-                    Collections.singletonList(key),
-                    uuid,
-                    String.valueOf(expire == -1L ? 30000 : expire));
-            // 等于 1 才能算加锁成功
-            boolean res = result != null && result.equals(1L);
-            if (res && expire == -1L) {
-                // 自动延时
-                delayLockTime(key, uuid, 30000);
-            }
-            return res;
+            return this.redisTemplate.execute(MULTI_LOCK_LUA_SCRIPT, keys, owner,
+                    String.valueOf(expire == -1L ? WATCHDOG_LEASE_MILLIS : expire));
         } catch (Exception e) {
             LOGGER.error("set redis occurred an exception", e);
         }
-        return false;
+        return -1L;
     }
 
     @Override
-    public boolean releaseLock(String key) {
-        // 释放锁的时候,有可能因为持锁之后方法执行时间大于锁的有效期,此时有可能已经被另外一个线程持有锁,所以不能直接删除
+    public LockHandle acquire(String key, long expire, Duration maxWait) {
+        return acquire(key, expire, toMillis(maxWait), BackoffStrategy.ttlAware(DEFAULT_BACKOFF));
+    }
+
+    /**
+     * 获取锁，返回的锁不与当前线程绑定
+     *
+     * @param key         锁名
+     * @param expire      锁的过期时间，-1 表示自动续期
+     * @param retryTimes  获取锁重试次数
+     * @param sleepMillis 获取锁失败后 如果重试需要休眠的时间
+     * @return 获取成功返回锁，失败返回 null
+     */
+    public LockHandle acquire(String key, long expire, int retryTimes, long sleepMillis) {
+        return acquire(key, expire, maxWait(retryTimes, sleepMillis), BackoffStrategy.fixed(sleepMillis));
+    }
+
+    /**
+     * 在最长等待时间内获取锁，返回的锁不与当前线程绑定
+     *
+     * @param key     锁名
+     * @param expire  锁的过期时间，-1 表示自动续期
+     * @param maxWait 最长等待时间
+     * @param backoff 获取失败后的退避策略，参数中带有锁的剩余过期时间
+     * @return 获取成功返回锁，失败返回 null
+     */
+    public LockHandle acquire(String key, long expire, long maxWait, BackoffStrategy backoff) {
+        // 整个获取过程使用同一个持锁标识
+        LockHandle handle = new LockHandle(key, UUID.randomUUID().toString(), expire, this);
+        Long ttl = setRedis(handle);
+        if (ttl == null) {
+            return handle;
+        }
+        if (maxWait <= 0) {
+            return null;
+        }
+        if (releaseSubscriber != null) {
+            return waitForRelease(handle, maxWait, backoff) ? handle : null;
+        }
+        // 如果获取锁失败,在最长等待时间内按退避策略重试
+        long start = System.currentTimeMillis();
+        long delay = 0L;
+        int attempt = 0;
+        while (ttl != null) {
+            long remaining = maxWait - (System.currentTimeMillis() - start);
+            if (remaining <= 0) {
+                return null;
+            }
+            delay = backoff.nextDelay(++attempt, delay, ttl);
+            try {
+                LOGGER.debug("lock failed, retrying after {}ms", delay);
+                lockObserver.onRetry(handle.getKey());
+                Thread.sleep(Math.max(0L, Math.min(delay, remaining)));
+            } catch (InterruptedException e) {
+                LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            ttl = setRedis(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * 释放锁，可以在获取锁之外的线程调用
+     * 释放锁的时候,有可能因为持锁之后方法执行时间大于锁的有效期,此时有可能已经被另外一个线程持有锁,所以只删除自己持有的锁
+     *
+     * @param handle 获取到的锁
+     * @return 是否成功
+     */
+    @Override
+    public boolean release(LockHandle handle) {
+        int remaining = handle.decrementHoldCount();
+        if (remaining != 0) {
+            // 还有重入未退出，或者已经释放过
+            return remaining > 0;
+        }
+        String key = handle.getKey();
         try {
-            Map<String, String> lockMap = context.get();
-            Long result = this.redisTemplate.execute(UNLOCK_LUA_SCRIPT, Collections.singletonList(key), lockMap.get(key));
+            // 先停止续期，再删除锁
+            watchdog.cancel(handle.getKey(), handle.getOwner());
+            Long result = releaseSubscriber == null
+                    ? this.redisTemplate.execute(UNLOCK_LUA_SCRIPT, Collections.singletonList(key), handle.getOwner())
+                    : this.redisTemplate.execute(UNLOCK_LUA_SCRIPT, Collections.singletonList(key), handle.getOwner(), releaseSubscriber.getChannel());
             return result != null && result > 0;
         } catch (Exception e) {
             LOGGER.error("release lock occurred an exception", e);
-        } finally {
-            // 移除线程变量
-            context.remove();
         }
         return false;
     }
 
+    @Override
+    public CompletableFuture<LockHandle> lockAsync(String key, long leaseMillis, long waitTimeoutMillis) {
+        LockHandle handle = new LockHandle(key, UUID.randomUUID().toString(), leaseMillis, this);
+        CompletableFuture<LockHandle> result = new CompletableFuture<>();
+        long now = System.currentTimeMillis();
+        // 等待时间为 Long.MAX_VALUE 等超大值时相加会溢出成负数，截止时间取最大值
+        long deadline = waitTimeoutMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + waitTimeoutMillis;
+        tryLockAsync(handle, deadline, result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(LockHandle handle) {
+        int remaining = handle.decrementHoldCount();
+        if (remaining != 0) {
+            return CompletableFuture.completedFuture(remaining > 0);
+        }
+        watchdog.cancel(handle.getKey(), handle.getOwner());
+        String[] args = releaseSubscriber == null
+                ? new String[]{handle.getOwner()}
+                : new String[]{handle.getOwner(), releaseSubscriber.getChannel()};
+        return evalAsync(UNLOCK_LUA_SCRIPT, Collections.singletonList(handle.getKey()), args)
+                .handle((result, error) -> {
+                    if (error != null) {
+                        LOGGER.error("release lock occurred an exception", error);
+                        return false;
+                    }
+                    return result != null && result > 0;
+                });
+    }
+
     /**
-     * 续期锁方法
+     * 异步尝试加锁，失败时登记释放通知回调并按剩余过期时间安排兜底重试，等待期间不占用线程
      *
-     * @param key    锁的名字
-     * @param value  锁的值
-     * @param expire 过期时间
+     * @param handle   待获取的锁
+     * @param deadline 截止时间
+     * @param result   获取结果
      */
-    private void delayLockTime(final String key, final String value, final long expire) {
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                Long result = redisTemplate.execute(DELAY_TIME_LUA_SCRIPT,
-                        Collections.singletonList(key),
-                        value, String.valueOf(expire));
-                LOGGER.info("update lock time, lock name: {}", key);
-                if (result != null && result.equals(1L)) {
-                    // 等于1 监听下一次续期
-                    delayLockTime(key, value, expire);
+    private void tryLockAsync(LockHandle handle, long deadline, CompletableFuture<LockHandle> result) {
+        long expire = handle.getLeaseMillis();
+        evalAsync(LOCK_LUA_SCRIPT, lockKeys(handle.getKey()), handle.getOwner(),
+                String.valueOf(expire == -1L ? WATCHDOG_LEASE_MILLIS : expire), fencingTokens ? "1" : "0").whenComplete((reply, error) -> {
+            Long ttl = error == null ? lockResult(handle, reply) : null;
+            if (error == null && ttl == null) {
+                if (expire == -1L) {
+                    watchdog.register(handle);
                 }
+                if (!result.complete(handle)) {
+                    // 调用方已取消，归还锁
+                    releaseAsync(handle);
+                }
+                return;
+            }
+            if (error != null) {
+                LOGGER.error("set redis occurred an exception", error);
             }
-        }, expire / 3);
+            long remaining = deadline - System.currentTimeMillis();
+            if (result.isDone() || remaining <= 0) {
+                result.complete(null);
+                return;
+            }
+            long delay = ttl != null && ttl > 0 ? Math.min(ttl, remaining) : Math.min(ASYNC_RETRY_MILLIS, remaining);
+            AtomicBoolean fired = new AtomicBoolean(false);
+            Runnable retry = () -> {
+                if (fired.compareAndSet(false, true)) {
+                    if (releaseSubscriber != null) {
+                        releaseSubscriber.unsubscribe(handle.getKey());
+                    }
+                    scheduler.execute(() -> tryLockAsync(handle, deadline, result));
+                }
+            };
+            if (releaseSubscriber != null) {
+                releaseSubscriber.subscribeOnce(handle.getKey(), () -> {
+                    boolean alive = !fired.get();
+                    retry.run();
+                    return alive;
+                });
+            }
+            scheduler.schedule(retry, delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * 异步执行脚本，只有 Lettuce 共享原生连接时才真正不占用线程，
+     * 其他情况在有界线程池中同步执行，等待锁的过程仍不占用调用线程
+     */
+    private <T> CompletableFuture<T> evalAsync(RedisScript<T> script, List<String> keys, String... args) {
+        LettuceScriptExecutor executor = scriptExecutor();
+        if (executor == null) {
+            return CompletableFuture.supplyAsync(() -> redisTemplate.execute(script, keys, (Object[]) args), writeLock.asyncFallback);
+        }
+        return executor.eval(script, keys, args);
+    }
+
+    private LettuceScriptExecutor scriptExecutor() {
+        if (writeLock != this) {
+            return writeLock.scriptExecutor();
+        }
+        if (!scriptExecutorResolved) {
+            synchronized (this) {
+                if (!scriptExecutorResolved) {
+                    scriptExecutor = LETTUCE_PRESENT ? LettuceScriptExecutor.create(redisTemplate.getRequiredConnectionFactory()) : null;
+                    if (scriptExecutor == null) {
+                        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("distributed-lock-async-");
+                        threadFactory.setDaemon(true);
+                        asyncFallback = Executors.newFixedThreadPool(ASYNC_FALLBACK_THREADS, threadFactory);
+                    }
+                    scriptExecutorResolved = true;
+                }
+            }
+        }
+        return scriptExecutor;
+    }
+
+    /**
+     * 发布订阅模式下等待锁释放
+     * 期间收到释放通知立即重试，没有通知时最多等待到锁的剩余过期时间再重试（持锁方宕机不会发布通知），
+     * 剩余过期时间未知时按退避策略等待
+     *
+     * @param handle  待获取的锁
+     * @param maxWait 最长等待时间
+     * @param backoff 退避策略
+     * @return 是否加锁成功
+     */
+    private boolean waitForRelease(LockHandle handle, long maxWait, BackoffStrategy backoff) {
+        long start = System.currentTimeMillis();
+        long delay = 0L;
+        int attempt = 0;
+        String key = handle.getKey();
+        RedisLockReleaseSubscriber.ReleaseEntry entry = releaseSubscriber.subscribe(key);
+        try {
+            while (true) {
+                // 先订阅再重试，避免错过两者之间发布的释放通知
+                Long ttl = setRedis(handle);
+                if (ttl == null) {
+                    if (shared) {
+                        // 读锁可以共享，继续唤醒本节点下一个等待者
+                        entry.signal();
+                    }
+                    return true;
+                }
+                long remaining = maxWait - (System.currentTimeMillis() - start);
+                if (remaining <= 0) {
+                    return false;
+                }
+                if (ttl <= 0) {
+                    delay = backoff.nextDelay(++attempt, delay, ttl);
+                }
+                long waitMillis = Math.max(1L, ttl > 0 ? Math.min(ttl, remaining) : Math.min(delay, remaining));
+                LOGGER.debug("lock failed, waiting for release at most {}ms", waitMillis);
+                entry.await(waitMillis);
+                lockObserver.onRetry(key);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            releaseSubscriber.unsubscribe(key);
+        }
+    }
+
+    /**
+     * 重试次数和间隔换算的最长等待时间
+     */
+    private static long maxWait(int retryTimes, long sleepMillis) {
+        return retryTimes > Long.MAX_VALUE / Math.max(sleepMillis, 1L) ? Long.MAX_VALUE : retryTimes * sleepMillis;
+    }
+
+    /**
+     * 尝试加锁一次
+     *
+     * @param handle 待获取的锁
+     * @return 加锁成功返回 null，否则返回锁的剩余过期时间，未知时返回 -1
+     */
+    private Long setRedis(LockHandle handle) {
+        try {
+            long expire = handle.getLeaseMillis();
+            Long result = lockResult(handle, this.redisTemplate.execute(LOCK_LUA_SCRIPT,
+                    lockKeys(handle.getKey()),
+                    handle.getOwner(),
+                    String.valueOf(expire == -1L ? WATCHDOG_LEASE_MILLIS : expire),
+                    fencingTokens ? "1" : "0"));
+            // 返回成功才能算加锁成功
+            if (result == null && expire == -1L) {
+                // 自动延时
+                watchdog.register(handle);
+            }
+            return result;
+        } catch (Exception e) {
+            LOGGER.error("set redis occurred an exception", e);
+        }
+        return -1L;
+    }
+
+    /**
+     * 解析加锁脚本的结果，成功时记录防护令牌
+     *
+     * @param handle 待获取的锁
+     * @param reply  脚本结果 {是否成功, 令牌或剩余过期时间}
+     * @return 加锁成功返回 null，否则返回锁的剩余过期时间，未知时返回 -1
+     */
+    private static Long lockResult(LockHandle handle, List<?> reply) {
+        if (reply == null || reply.size() < 2) {
+            return -1L;
+        }
+        long value = ((Number) reply.get(1)).longValue();
+        if (((Number) reply.get(0)).longValue() == 1L) {
+            handle.setFencingToken(value);
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * 加锁脚本的 KEYS：锁名和防护令牌计数器
+     */
+    private static List<String> lockKeys(String key) {
+        return Arrays.asList(key, fencingKey(key));
+    }
+
+    /**
+     * 防护令牌计数器，与锁名落在同一个集群槽位
+     * 锁名已带有 {hash tag} 时直接追加后缀，否则把整个锁名作为 hash tag
+     *
+     * @param key 锁名
+     * @return 计数器的 key
+     */
+    static String fencingKey(String key) {
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) {
+                return key + ":fencing";
+            }
+        }
+        return "{" + key + "}:fencing";
+    }
+
+    /**
+     * 批量续期，一批锁只需要一次请求；集群模式下一个脚本只能访问同一槽位的键，按槽位分组各发一次
+     * 包内可见，供同包的基准测试直接调用
+     *
+     * @param leases      需要续期的锁
+     * @param leaseMillis 过期时间
+     * @return 已不再持有的锁
+     */
+    Collection<LockWatchdog.Lease> renew(List<LockWatchdog.Lease> leases, long leaseMillis) {
+        if (!isCluster()) {
+            return renewSameSlot(leases, leaseMillis);
+        }
+        Map<Integer, List<LockWatchdog.Lease>> slots = new HashMap<>();
+        for (LockWatchdog.Lease lease : leases) {
+            slots.computeIfAbsent(ClusterSlotHashUtil.calculateSlot(lease.getKey()), slot -> new ArrayList<>()).add(lease);
+        }
+        List<LockWatchdog.Lease> result = new ArrayList<>();
+        RuntimeException failure = null;
+        for (List<LockWatchdog.Lease> group : slots.values()) {
+            try {
+                result.addAll(renewSameSlot(group, leaseMillis));
+            } catch (RuntimeException e) {
+                // 继续续期其他槽位，最后再报告失败
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * 一次请求续期一批锁，集群模式下这批锁必须在同一槽位
+     */
+    private Collection<LockWatchdog.Lease> renewSameSlot(List<LockWatchdog.Lease> leases, long leaseMillis) {
+        List<String> keys = new ArrayList<>(leases.size());
+        Object[] args = new Object[leases.size() + 1];
+        args[0] = String.valueOf(leaseMillis);
+        for (int i = 0; i < leases.size(); i++) {
+            keys.add(leases.get(i).getKey());
+            args[i + 1] = leases.get(i).getOwner();
+        }
+        List<?> lost = redisTemplate.execute(RENEW_LUA_SCRIPT, keys, args);
+        if (lost == null || lost.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<LockWatchdog.Lease> result = new ArrayList<>(lost.size());
+        for (Object index : lost) {
+            // lua 下标从 1 开始
+            result.add(leases.get(((Number) index).intValue() - 1));
+        }
+        return result;
+    }
+
+    /**
+     * 锁名是否都在同一槽位
+     */
+    private static boolean isSameSlot(Collection<String> keys) {
+        int slot = -1;
+        for (String key : keys) {
+            int current = ClusterSlotHashUtil.calculateSlot(key);
+            if (slot >= 0 && current != slot) {
+                return false;
+            }
+            slot = current;
+        }
+        return true;
+    }
+
+    /**
+     * 是否连接的是 redis 集群，第一次使用时检查
+     */
+    private boolean isCluster() {
+        Boolean current = cluster;
+        if (current == null) {
+            current = Boolean.TRUE.equals(redisTemplate.execute((RedisCallback<Boolean>) connection -> connection instanceof RedisClusterConnection));
+            cluster = current;
+        }
+        return current;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        if (asyncFallback != null) {
+            asyncFallback.shutdownNow();
+        }
     }
 
 }
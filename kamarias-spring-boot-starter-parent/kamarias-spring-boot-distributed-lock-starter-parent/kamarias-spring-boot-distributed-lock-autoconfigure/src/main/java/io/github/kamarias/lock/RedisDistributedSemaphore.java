@@ -0,0 +1,153 @@
+package io.github.kamarias.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * 基于 Redis 有序集合的分布式信号量
+ * 每个许可是集合中的一个成员，分数为到期时间；获取时先清理过期许可再计数，
+ * 持有者宕机后许可到期即被后来者回收
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/21 9:45
+ */
+public class RedisDistributedSemaphore implements DistributedSemaphore {
+
+    /**
+     * 未开启发布订阅时的最大轮询间隔
+     */
+    private static final long POLL_MILLIS = 100L;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RedisDistributedSemaphore.class);
+
+    /**
+     * 获取许可lua脚本，成功返回 nil，否则返回最早到期许可的剩余时间
+     */
+    private static final String ACQUIRE_LUA;
+
+    /**
+     * 归还许可lua脚本
+     */
+    private static final String RELEASE_LUA;
+
+    private static final RedisScript<Long> ACQUIRE_LUA_SCRIPT;
+
+    private static final RedisScript<Long> RELEASE_LUA_SCRIPT;
+
+    static {
+        // ARGV[1] 许可总数 ARGV[2] 许可过期时间 ARGV[3] 许可标识
+        // 使用 redis 服务端时间，各节点时钟偏差不影响许可过期；调用 time 后仍要写入，低版本需要开启按效果复制
+        ACQUIRE_LUA = "redis.replicate_commands() " +
+                "local time = redis.call('time') " +
+                "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) " +
+                "redis.call('zremrangebyscore', KEYS[1], '-inf', now) " +
+                "if redis.call('zcard', KEYS[1]) < tonumber(ARGV[1]) " +
+                "then " +
+                "redis.call('zadd', KEYS[1], now + tonumber(ARGV[2]), ARGV[3]) " +
+                "if redis.call('pttl', KEYS[1]) < tonumber(ARGV[2]) then " +
+                "redis.call('pexpire', KEYS[1], ARGV[2]) " +
+                "end " +
+                "return nil " +
+                "end " +
+                "local first = redis.call('zrange', KEYS[1], 0, 0, 'WITHSCORES') " +
+                "return math.max(tonumber(first[2]) - now, 0)";
+        // 传入 ARGV[2] 时把信号量名发布到该频道，唤醒等待中的线程
+        RELEASE_LUA = "if redis.call('zrem', KEYS[1], ARGV[1]) == 1 " +
+                "then " +
+                "if ARGV[2] then redis.call('publish', ARGV[2], KEYS[1]) end " +
+                "return 1 " +
+                "else " +
+                "return 0 " +
+                "end";
+        ACQUIRE_LUA_SCRIPT = new DefaultRedisScript<>(ACQUIRE_LUA, Long.class);
+        RELEASE_LUA_SCRIPT = new DefaultRedisScript<>(RELEASE_LUA, Long.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+
+    /**
+     * 释放通知订阅者，为空时按最早到期时间轮询
+     */
+    private final RedisLockReleaseSubscriber releaseSubscriber;
+
+    public RedisDistributedSemaphore(StringRedisTemplate redisTemplate) {
+        this(redisTemplate, null);
+    }
+
+    public RedisDistributedSemaphore(StringRedisTemplate redisTemplate, RedisLockReleaseSubscriber releaseSubscriber) {
+        this.redisTemplate = redisTemplate;
+        this.releaseSubscriber = releaseSubscriber;
+    }
+
+    @Override
+    public String acquire(String key, int permits, long leaseMillis, long waitMillis) {
+        String permitId = UUID.randomUUID().toString();
+        long start = System.currentTimeMillis();
+        Long wait = tryAcquire(key, permits, leaseMillis, permitId);
+        if (wait == null) {
+            return permitId;
+        }
+        // 先登记再重试，避免错过两者之间的释放通知
+        RedisLockReleaseSubscriber.ReleaseEntry entry = releaseSubscriber == null ? null : releaseSubscriber.subscribe(key);
+        try {
+            while (wait != null && wait >= 0) {
+                long remaining = waitMillis - (System.currentTimeMillis() - start);
+                if (remaining <= 0) {
+                    return null;
+                }
+                // 最迟等到最早的许可到期，有通知时提前醒来
+                long sleep = Math.min(remaining, Math.max(wait, 1L));
+                if (entry != null) {
+                    entry.await(sleep);
+                } else {
+                    Thread.sleep(Math.min(sleep, POLL_MILLIS));
+                }
+                wait = tryAcquire(key, permits, leaseMillis, permitId);
+            }
+            return wait == null ? permitId : null;
+        } catch (InterruptedException e) {
+            LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (entry != null) {
+                releaseSubscriber.unsubscribe(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean release(String key, String permitId) {
+        try {
+            Long result = releaseSubscriber == null
+                    ? redisTemplate.execute(RELEASE_LUA_SCRIPT, Collections.singletonList(key), permitId)
+                    : redisTemplate.execute(RELEASE_LUA_SCRIPT, Collections.singletonList(key), permitId, releaseSubscriber.getChannel());
+            return result != null && result == 1L;
+        } catch (Exception e) {
+            LOGGER.error("release semaphore occurred an exception", e);
+        }
+        return false;
+    }
+
+    /**
+     * 尝试获取一次许可
+     *
+     * @return 成功返回 null，失败返回最早到期许可的剩余时间，异常返回 -1
+     */
+    private Long tryAcquire(String key, int permits, long leaseMillis, String permitId) {
+        try {
+            return redisTemplate.execute(ACQUIRE_LUA_SCRIPT, Collections.singletonList(key),
+                    String.valueOf(permits), String.valueOf(leaseMillis), permitId);
+        } catch (Exception e) {
+            LOGGER.error("acquire semaphore occurred an exception", e);
+        }
+        return -1L;
+    }
+
+}
@@ -0,0 +1,133 @@
+package io.github.kamarias.lock;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 锁释放通知订阅者
+ * 每个节点只订阅一个频道，解锁脚本把被释放的锁名发布到该频道，
+ * 订阅者按锁名唤醒本节点上等待该锁的线程
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/12 10:35
+ */
+public class RedisLockReleaseSubscriber implements MessageListener {
+
+    private final String channel;
+
+    /**
+     * 正在等待的锁，key 为锁名
+     */
+    private final ConcurrentHashMap<String, ReleaseEntry> entries = new ConcurrentHashMap<>();
+
+    public RedisLockReleaseSubscriber(String channel) {
+        this.channel = channel;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * 登记等待某个锁，必须在加锁重试之前调用，避免错过两者之间发布的释放通知
+     *
+     * @param key 锁名
+     * @return 等待入口
+     */
+    public ReleaseEntry subscribe(String key) {
+        return entries.compute(key, (k, entry) -> {
+            if (entry == null) {
+                entry = new ReleaseEntry();
+            }
+            entry.refs++;
+            return entry;
+        });
+    }
+
+    /**
+     * 登记一次性的异步唤醒回调，回调被调用或放弃等待后需要调用 {@link #unsubscribe(String)}
+     *
+     * @param key      锁名
+     * @param listener 唤醒回调，不能阻塞；返回 false 表示已失效（例如已超时重试），会继续唤醒下一个
+     */
+    public void subscribeOnce(String key, BooleanSupplier listener) {
+        subscribe(key).listeners.add(listener);
+    }
+
+    /**
+     * 取消等待，最后一个等待者离开时移除入口
+     *
+     * @param key 锁名
+     */
+    public void unsubscribe(String key) {
+        entries.computeIfPresent(key, (k, entry) -> --entry.refs == 0 ? null : entry);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        ReleaseEntry entry = entries.get(key);
+        if (entry != null) {
+            entry.signal();
+            entry.notifyListener();
+        }
+    }
+
+    /**
+     * 单个锁的等待入口
+     */
+    public static class ReleaseEntry {
+
+        private final Semaphore semaphore = new Semaphore(0);
+
+        /**
+         * 异步等待者的唤醒回调
+         */
+        private final ConcurrentLinkedQueue<BooleanSupplier> listeners = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 等待者数量，只在 ConcurrentHashMap 的 compute 中修改
+         */
+        private int refs;
+
+        /**
+         * 等待释放通知
+         *
+         * @param timeoutMillis 最长等待时间
+         * @return 是否收到通知
+         * @throws InterruptedException 线程被中断
+         */
+        public boolean await(long timeoutMillis) throws InterruptedException {
+            return semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 一次释放只唤醒一个等待者，其余的继续等待下一次通知，避免本节点内的惊群
+         */
+        void signal() {
+            if (semaphore.availablePermits() == 0) {
+                semaphore.release();
+            }
+        }
+
+        /**
+         * 唤醒一个仍然有效的异步等待者
+         */
+        void notifyListener() {
+            BooleanSupplier listener;
+            while ((listener = listeners.poll()) != null) {
+                if (listener.getAsBoolean()) {
+                    return;
+                }
+            }
+        }
+    }
+
+}
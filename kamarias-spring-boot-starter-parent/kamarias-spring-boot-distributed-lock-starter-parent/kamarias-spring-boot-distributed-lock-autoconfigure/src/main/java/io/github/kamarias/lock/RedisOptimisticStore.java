@@ -0,0 +1,84 @@
+package io.github.kamarias.lock;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于 Redis 哈希的带版本号存储
+ * 每个键是一个哈希，value 字段保存值，version 字段保存版本号；比较并设置在 lua 脚本中一次完成，
+ * 冲突时同时返回最新的值和版本号
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 10:40
+ */
+public class RedisOptimisticStore implements OptimisticStore {
+
+    private static final String VALUE_FIELD = "value";
+
+    private static final String VERSION_FIELD = "version";
+
+    /**
+     * 比较并设置lua脚本，成功返回 {1, 新版本号}，冲突返回 {0, 当前版本号, 当前值}
+     */
+    private static final String COMPARE_AND_SET_LUA;
+
+    private static final RedisScript<List> COMPARE_AND_SET_LUA_SCRIPT;
+
+    static {
+        // ARGV[1] 期望的版本号 ARGV[2] 新的值 ARGV[3] 过期时间
+        COMPARE_AND_SET_LUA = "local current = redis.call('hmget', KEYS[1], 'value', 'version') " +
+                "local version = tonumber(current[2]) or 0 " +
+                "if version ~= tonumber(ARGV[1]) then " +
+                "return {0, version, current[1]} " +
+                "end " +
+                "version = version + 1 " +
+                "redis.call('hmset', KEYS[1], 'value', ARGV[2], 'version', version) " +
+                "if tonumber(ARGV[3]) > 0 then " +
+                "redis.call('pexpire', KEYS[1], ARGV[3]) " +
+                "else " +
+                "redis.call('persist', KEYS[1]) " +
+                "end " +
+                "return {1, version}";
+        COMPARE_AND_SET_LUA_SCRIPT = new DefaultRedisScript<>(COMPARE_AND_SET_LUA, List.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisOptimisticStore(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public Versioned get(String key) {
+        List<Object> fields = redisTemplate.opsForHash().multiGet(key, Arrays.<Object>asList(VALUE_FIELD, VERSION_FIELD));
+        Object version = fields.get(1);
+        if (version == null) {
+            return new Versioned(null, 0L);
+        }
+        return new Versioned((String) fields.get(0), Long.parseLong(version.toString()));
+    }
+
+    @Override
+    public Versioned compareAndSet(String key, long expectedVersion, String value, long expireMillis) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null, key: " + key);
+        }
+        List<?> reply = redisTemplate.execute(COMPARE_AND_SET_LUA_SCRIPT, Collections.singletonList(key),
+                String.valueOf(expectedVersion), value, String.valueOf(expireMillis));
+        if (reply == null || reply.size() < 2) {
+            throw new IllegalStateException("unexpected compare and set reply: " + reply + ", key: " + key);
+        }
+        long version = ((Number) reply.get(1)).longValue();
+        if (((Number) reply.get(0)).intValue() == 1) {
+            return new Versioned(value, version);
+        }
+        String current = reply.size() > 2 && reply.get(2) != null ? reply.get(2).toString() : null;
+        throw new VersionConflictException(key, expectedVersion, new Versioned(current, version));
+    }
+
+}
@@ -0,0 +1,68 @@
+package io.github.kamarias.lock;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于 Redis 有序集合的分片任务成员登记
+ * 成员的分数为最近一次心跳时间，心跳时清理超时的成员并返回剩余成员，一次请求完成；
+ * 所有成员下线后集合随过期时间自动删除
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 14:30
+ */
+public class RedisShardMembership implements ShardMembership {
+
+    private static final String KEY_PREFIX = "shardMembers:";
+
+    /**
+     * 心跳lua脚本，返回存活的成员
+     */
+    private static final String HEARTBEAT_LUA;
+
+    private static final RedisScript<List> HEARTBEAT_LUA_SCRIPT;
+
+    static {
+        // ARGV[1] 成员标识 ARGV[2] 超时时间 ARGV[3] 集合过期时间
+        // 使用 redis 服务端时间，各节点时钟偏差不影响存活判断；调用 time 后仍要写入，低版本需要开启按效果复制
+        HEARTBEAT_LUA = "redis.replicate_commands() " +
+                "local time = redis.call('time') " +
+                "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) " +
+                "redis.call('zadd', KEYS[1], now, ARGV[1]) " +
+                "redis.call('zremrangebyscore', KEYS[1], '-inf', '(' .. (now - tonumber(ARGV[2]))) " +
+                "redis.call('pexpire', KEYS[1], ARGV[3]) " +
+                "return redis.call('zrange', KEYS[1], 0, -1)";
+        HEARTBEAT_LUA_SCRIPT = new DefaultRedisScript<>(HEARTBEAT_LUA, List.class);
+    }
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisShardMembership(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public List<String> heartbeat(String group, String memberId, long timeoutMillis) {
+        List<?> members = redisTemplate.execute(HEARTBEAT_LUA_SCRIPT, Collections.singletonList(KEY_PREFIX + group),
+                memberId, String.valueOf(timeoutMillis), String.valueOf(timeoutMillis * 2));
+        if (members == null) {
+            return Collections.singletonList(memberId);
+        }
+        List<String> result = new ArrayList<>(members.size());
+        for (Object member : members) {
+            result.add(String.valueOf(member));
+        }
+        return result;
+    }
+
+    @Override
+    public void leave(String group, String memberId) {
+        redisTemplate.opsForZSet().remove(KEY_PREFIX + group, memberId);
+    }
+
+}
@@ -0,0 +1,80 @@
+package io.github.kamarias.lock;
+
+import java.util.List;
+
+/**
+ * 分片任务当前执行的上下文
+ * {@link io.github.kamarias.annotations.ShardedJob} 方法执行期间通过 {@link #current()} 获取当前节点分配到的分片，
+ * 定时任务方法不能有参数，因此不通过参数传入
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 15:40
+ */
+public class ShardContext {
+
+    private static final ThreadLocal<ShardContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 分片任务名
+     */
+    private final String job;
+
+    /**
+     * 分片总数
+     */
+    private final int totalShards;
+
+    /**
+     * 当前节点分配到的分片编号
+     */
+    private final List<Integer> shards;
+
+    public ShardContext(String job, int totalShards, List<Integer> shards) {
+        this.job = job;
+        this.totalShards = totalShards;
+        this.shards = shards;
+    }
+
+    /**
+     * 当前线程正在执行的分片任务
+     *
+     * @return 不在分片任务中时返回 null
+     */
+    public static ShardContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程的分片任务上下文
+     *
+     * @param context 上下文，为空时清除
+     * @return 原来的上下文，嵌套调用结束后恢复
+     */
+    public static ShardContext set(ShardContext context) {
+        ShardContext previous = CURRENT.get();
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    public String getJob() {
+        return job;
+    }
+
+    public int getTotalShards() {
+        return totalShards;
+    }
+
+    public List<Integer> getShards() {
+        return shards;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardContext{job='" + job + "', totalShards=" + totalShards + ", shards=" + shards + "}";
+    }
+
+}
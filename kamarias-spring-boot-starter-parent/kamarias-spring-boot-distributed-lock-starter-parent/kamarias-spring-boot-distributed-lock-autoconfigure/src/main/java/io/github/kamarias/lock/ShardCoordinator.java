@@ -0,0 +1,256 @@
+package io.github.kamarias.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分片任务协调
+ * 节点在后台按固定间隔上报心跳并获取存活成员，分片按一致性哈希分配给成员：每个成员在哈希环上有多个虚拟节点，
+ * 分片归属顺时针方向的第一个虚拟节点；成员变化时只有相邻区间的分片移动，各节点根据相同的成员列表独立计算，不需要额外协调。
+ * 成员变化后各节点的视图在一个心跳周期内趋于一致，期间同一分片可能被两个节点处理，任务应当可以重复执行
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 15:10
+ */
+public class ShardCoordinator implements DisposableBean {
+
+    /**
+     * 每个成员的虚拟节点数量，越多分片越均匀
+     */
+    private static final int VIRTUAL_NODES = 160;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    private final ShardMembership membership;
+
+    /**
+     * 当前节点的成员标识
+     */
+    private final String memberId;
+
+    private final long heartbeatMillis;
+
+    /**
+     * 超过该时间没有心跳的成员视为下线
+     */
+    private final long timeoutMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    /**
+     * @param membership      成员登记
+     * @param heartbeatMillis 心跳间隔，单位毫秒
+     * @param timeoutMillis   成员超时时间，单位毫秒，应为心跳间隔的数倍
+     */
+    public ShardCoordinator(ShardMembership membership, long heartbeatMillis, long timeoutMillis) {
+        this.membership = membership;
+        this.heartbeatMillis = heartbeatMillis;
+        this.timeoutMillis = timeoutMillis;
+        // pid@hostname 便于排查，随机后缀保证重启后是新成员
+        this.memberId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("shard-coordinator-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    /**
+     * 当前节点分配到的分片
+     * 第一次调用时加入任务并上报一次心跳，之后只读取本地的成员列表
+     *
+     * @param group  分片任务名
+     * @param shards 分片总数
+     * @return 分配到的分片编号，从小到大；与成员登记失联超过超时时间时返回空，避免与接管的节点重复处理
+     */
+    public List<Integer> assignedShards(String group, int shards) {
+        Group current = groups.computeIfAbsent(group, Group::new);
+        if (current.joined.compareAndSet(false, true)) {
+            heartbeat(current);
+            scheduler.scheduleWithFixedDelay(() -> heartbeat(current), heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+        View view = current.view;
+        if (view == null || System.nanoTime() - view.confirmedAt >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+            return Collections.emptyList();
+        }
+        return view.assignment(shards);
+    }
+
+    /**
+     * 当前的存活成员
+     *
+     * @param group 分片任务名
+     * @return 成员标识，尚未加入任务时返回空
+     */
+    public List<String> members(String group) {
+        Group current = groups.get(group);
+        View view = current == null ? null : current.view;
+        return view == null ? Collections.emptyList() : view.members;
+    }
+
+    private void heartbeat(Group group) {
+        // 以请求发出的时间作为确认时间偏保守
+        long sentAt = System.nanoTime();
+        List<String> members;
+        try {
+            members = new ArrayList<>(membership.heartbeat(group.name, memberId, timeoutMillis));
+        } catch (Exception e) {
+            // 保留原有视图，超时后不再分配分片
+            LOGGER.error("shard member heartbeat occurred an exception, job: " + group.name, e);
+            return;
+        }
+        if (!members.contains(memberId)) {
+            members.add(memberId);
+        }
+        Collections.sort(members);
+        View previous = group.view;
+        if (previous != null && previous.members.equals(members)) {
+            group.view = new View(previous, sentAt);
+            return;
+        }
+        LOGGER.info("shard members changed, rebalance job: {}, members: {}", group.name, members);
+        group.view = new View(Collections.unmodifiableList(members), memberId, sentAt);
+    }
+
+    /**
+     * 退出所有任务，其他节点在下一次心跳时接管分片
+     */
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        for (Group group : groups.values()) {
+            group.view = null;
+            try {
+                membership.leave(group.name, memberId);
+            } catch (Exception e) {
+                LOGGER.warn("leave shard job occurred an exception, job: {}", group.name, e);
+            }
+        }
+    }
+
+    /**
+     * 64 位哈希，FNV-1a 之后再做一次混淆，相近的字符串在环上也能分散开
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static class Group {
+
+        private final String name;
+
+        private final AtomicBoolean joined = new AtomicBoolean(false);
+
+        private volatile View view;
+
+        Group(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * 某一时刻的成员列表和对应的哈希环
+     */
+    private static class View {
+
+        private final List<String> members;
+
+        private final String memberId;
+
+        private final TreeMap<Long, String> ring;
+
+        /**
+         * 最近一次确认成员列表的时间，System.nanoTime 时间轴
+         */
+        private final long confirmedAt;
+
+        /**
+         * 最近一次计算的分配结果，分片总数不变时直接复用
+         */
+        private volatile Assignment assignment;
+
+        View(List<String> members, String memberId, long confirmedAt) {
+            this.members = members;
+            this.memberId = memberId;
+            this.confirmedAt = confirmedAt;
+            this.ring = new TreeMap<>();
+            for (String member : members) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    ring.put(hash(member + "#" + i), member);
+                }
+            }
+        }
+
+        /**
+         * 成员没有变化，沿用哈希环和分配结果
+         */
+        View(View previous, long confirmedAt) {
+            this.members = previous.members;
+            this.memberId = previous.memberId;
+            this.ring = previous.ring;
+            this.assignment = previous.assignment;
+            this.confirmedAt = confirmedAt;
+        }
+
+        List<Integer> assignment(int shards) {
+            Assignment current = assignment;
+            if (current != null && current.shards == shards) {
+                return current.assigned;
+            }
+            List<Integer> assigned = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                Map.Entry<Long, String> entry = ring.ceilingEntry(hash("shard-" + shard));
+                String owner = entry == null ? ring.firstEntry().getValue() : entry.getValue();
+                if (memberId.equals(owner)) {
+                    assigned.add(shard);
+                }
+            }
+            current = new Assignment(shards, Collections.unmodifiableList(assigned));
+            assignment = current;
+            return current.assigned;
+        }
+    }
+
+    private static class Assignment {
+
+        private final int shards;
+
+        private final List<Integer> assigned;
+
+        Assignment(int shards, List<Integer> assigned) {
+            this.shards = shards;
+            this.assigned = assigned;
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package io.github.kamarias.lock;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分片任务成员登记
+ * 每个节点按固定间隔上报心跳，超时没有心跳的节点视为下线，其分片由存活节点重新分配
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 14:10
+ */
+public interface ShardMembership {
+
+	/**
+	 * 上报心跳，同时返回当前存活的成员
+	 * @param group 分片任务名
+	 * @param memberId 当前成员标识
+	 * @param timeoutMillis 超过该时间没有心跳的成员视为下线
+	 * @return 存活的成员标识，包含当前成员
+	 */
+	List<String> heartbeat(String group, String memberId, long timeoutMillis);
+
+	/**
+	 * 退出，其他成员在下一次心跳时接管分片
+	 * @param group 分片任务名
+	 * @param memberId 当前成员标识
+	 */
+	void leave(String group, String memberId);
+
+	/**
+	 * 只有当前节点一个成员，用于进程内的锁或没有可用的 redis、zookeeper 时
+	 * @return 成员登记
+	 */
+	static ShardMembership standalone() {
+		return new ShardMembership() {
+
+			@Override
+			public List<String> heartbeat(String group, String memberId, long timeoutMillis) {
+				return Collections.singletonList(memberId);
+			}
+
+			@Override
+			public void leave(String group, String memberId) {
+			}
+		};
+	}
+}
@@ -0,0 +1,35 @@
+package io.github.kamarias.lock;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+/**
+ * 比较并设置时版本号不一致，值已被其他调用方修改
+ * 携带冲突时的最新值，重试时不需要重新读取
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 10:20
+ */
+public class VersionConflictException extends OptimisticLockingFailureException {
+
+    private final String key;
+
+    /**
+     * 冲突时的最新值和版本号
+     */
+    private final Versioned current;
+
+    public VersionConflictException(String key, long expectedVersion, Versioned current) {
+        super("version conflict, key: " + key + ", expected version: " + expectedVersion + ", current version: " + current.getVersion());
+        this.key = key;
+        this.current = current;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Versioned getCurrent() {
+        return current;
+    }
+
+}
@@ -0,0 +1,37 @@
+package io.github.kamarias.lock;
+
+/**
+ * 带版本号的值
+ * 每次成功写入版本号加一，不存在的值版本号为 0
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/30 10:10
+ */
+public class Versioned {
+
+    private final String value;
+
+    private final long version;
+
+    public Versioned(String value, long version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    /**
+     * @return 值，不存在时为 null
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "Versioned{value='" + value + "', version=" + version + "}";
+    }
+
+}
@@ -0,0 +1,257 @@
+package io.github.kamarias.lock;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ZooKeeper 连接管理
+ * 把客户端事件归纳为连接状态：首次连接 CONNECTED，断开 SUSPENDED，同一会话恢复 RECONNECTED，
+ * 会话过期 LOST；会话过期后自动创建新会话，锁实现据此校验或放弃已持有的节点
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/23 9:40
+ */
+public class ZooKeeperConnectionManager implements Watcher, DisposableBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperConnectionManager.class);
+
+    /**
+     * 连接地址，为空时不能重建会话
+     */
+    private final String connectString;
+
+    private final int sessionTimeout;
+
+    private volatile ZooKeeper zooKeeper;
+
+    private volatile ConnectionState state;
+
+    /**
+     * 是否连接成功过，用于区分首次连接和恢复连接
+     */
+    private volatile boolean everConnected;
+
+    private volatile boolean closed;
+
+    private final List<ConnectionStateListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 等待连接恢复后执行的任务
+     */
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    private final Object monitor = new Object();
+
+    /**
+     * 由连接管理创建并负责会话过期后重建的客户端
+     *
+     * @param connectString  连接地址
+     * @param sessionTimeout 会话超时时间，单位毫秒
+     * @throws IOException 连接地址不合法
+     */
+    public ZooKeeperConnectionManager(String connectString, int sessionTimeout) throws IOException {
+        this.connectString = connectString;
+        this.sessionTimeout = sessionTimeout;
+        this.zooKeeper = new ZooKeeper(connectString, sessionTimeout, this);
+    }
+
+    /**
+     * 接管已有的客户端，会替换它的默认监听；会话过期后无法重建，状态停留在 LOST
+     *
+     * @param zooKeeper 已有的客户端
+     */
+    public ZooKeeperConnectionManager(ZooKeeper zooKeeper) {
+        this.connectString = null;
+        this.sessionTimeout = zooKeeper.getSessionTimeout();
+        this.zooKeeper = zooKeeper;
+        if (zooKeeper.getState().isConnected()) {
+            this.state = ConnectionState.CONNECTED;
+            this.everConnected = true;
+        }
+        zooKeeper.register(this);
+    }
+
+    public ZooKeeper getZooKeeper() {
+        return zooKeeper;
+    }
+
+    public ConnectionState getState() {
+        return state;
+    }
+
+    public boolean isConnected() {
+        ConnectionState current = state;
+        return current == ConnectionState.CONNECTED || current == ConnectionState.RECONNECTED;
+    }
+
+    public void addListener(ConnectionStateListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 等待连接可用
+     *
+     * @param timeoutMillis 最长等待时间
+     * @return 是否已连接
+     * @throws InterruptedException 线程被中断
+     */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (monitor) {
+            while (!isConnected()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                monitor.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 连接可用时立即执行，否则在连接恢复后执行；任务在事件线程中运行，不能阻塞
+     *
+     * @param task 任务
+     */
+    public void whenConnected(Runnable task) {
+        if (isConnected()) {
+            task.run();
+            return;
+        }
+        pending.add(task);
+        // 入队与连接恢复之间的竞争
+        if (isConnected()) {
+            runPending();
+        }
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+        if (event.getType() != Event.EventType.None || closed) {
+            return;
+        }
+        switch (event.getState()) {
+            case SyncConnected:
+                changeState(everConnected ? ConnectionState.RECONNECTED : ConnectionState.CONNECTED);
+                everConnected = true;
+                runPending();
+                break;
+            case Disconnected:
+                changeState(ConnectionState.SUSPENDED);
+                break;
+            case Expired:
+                changeState(ConnectionState.LOST);
+                reconnect();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void changeState(ConnectionState newState) {
+        LOGGER.info("zookeeper connection state changed: {} -> {}", state, newState);
+        synchronized (monitor) {
+            state = newState;
+            monitor.notifyAll();
+        }
+        for (ConnectionStateListener listener : listeners) {
+            try {
+                listener.stateChanged(newState);
+            } catch (Exception e) {
+                LOGGER.error("zookeeper connection state listener occurred an exception", e);
+            }
+        }
+    }
+
+    private void runPending() {
+        Runnable task;
+        while (isConnected() && (task = pending.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOGGER.error("zookeeper pending task occurred an exception", e);
+            }
+        }
+    }
+
+    /**
+     * 会话过期后重建客户端
+     */
+    private void reconnect() {
+        if (connectString == null) {
+            LOGGER.error("zookeeper session expired and cannot be recreated without connect string");
+            return;
+        }
+        ZooKeeper expired = zooKeeper;
+        try {
+            expired.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            zooKeeper = new ZooKeeper(connectString, sessionTimeout, this);
+        } catch (IOException e) {
+            LOGGER.error("recreate zookeeper session occurred an exception", e);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        closed = true;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+        zooKeeper.close();
+    }
+
+    /**
+     * 连接状态
+     */
+    public enum ConnectionState {
+        /**
+         * 首次连接成功
+         */
+        CONNECTED,
+
+        /**
+         * 连接断开，会话可能仍然有效，已持有的节点状态未知
+         */
+        SUSPENDED,
+
+        /**
+         * 同一会话恢复连接，需要校验已持有的节点
+         */
+        RECONNECTED,
+
+        /**
+         * 会话过期，所有临时节点已被删除
+         */
+        LOST
+    }
+
+    /**
+     * 连接状态监听
+     */
+    @FunctionalInterface
+    public interface ConnectionStateListener {
+
+        /**
+         * 状态变化，在事件线程中调用，不能阻塞
+         *
+         * @param state 新状态
+         */
+        void stateChanged(ConnectionState state);
+    }
+
+}
@@ -3,60 +3,203 @@ package io.github.kamarias.lock;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.CollectionUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * 基于ZooKeeper的分布式锁
+ * 每个锁名一个容器父节点，获取锁只读取该锁名下的子节点并只监听前一个节点，
+ * 耗时只与该锁名的竞争程度有关
+ * 节点的创建和检查全部异步完成，同步加锁只在结果上限时等待；连接断开时请求在恢复后继续，
+ * 同一会话恢复后校验已持有的节点，会话过期时已持有的锁全部标记为失去
+ * 防护令牌为锁节点的创建事务号 czxid，全局递增，锁名父节点被清理重建后也不会回退
+ *
  * @author wangyuxing@gogpay.cn
  * @date 2023/1/4 9:38
  */
-public class ZooKeeperDistributedLock extends AbstractDistributedLock {
+public class ZooKeeperDistributedLock extends AbstractDistributedLock implements AsyncDistributedLock, DisposableBean {
 
     private final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperDistributedLock.class);
 
-    private final ZooKeeper zooKeeper;
-
     private static final String ROOT_PATH = "/distributedLock";
 
-    private static final ThreadLocal<Integer> THREAD_LOCAL = new ThreadLocal<>();
+    private static final String NODE_PREFIX = "lock-";
+
+    /**
+     * 受保护节点前缀，创建请求的响应因断线丢失时按唯一标识找回已创建的节点
+     */
+    private static final String PROTECTED_PREFIX = "_c_";
+
+    private final ZooKeeperConnectionManager connectionManager;
+
+    /**
+     * 根节点，每个锁名为它下面的一个父节点
+     */
+    private final String rootPath;
+
+    /**
+     * 锁节点前缀
+     */
+    private final String nodePrefix;
+
+    /**
+     * 是否为共享锁：共享锁只等待前面最后一个其他前缀的节点，排他锁等待前一个节点
+     */
+    private final boolean shared;
+
+    /**
+     * 异步获取锁的超时调度线程
+     */
+    private final ScheduledExecutorService scheduler;
 
-    private static final ThreadLocal<String> LOCK_PATH = new ThreadLocal<>();
+    /**
+     * 当前线程持有的锁，key 为锁名
+     */
+    private final ThreadLocal<Map<String, LockHandle>> context = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * 本实例持有的全部锁，用于连接恢复后校验
+     */
+    private final Set<LockHandle> held = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 因断线未能删除的节点，连接恢复后一次 multi 批量删除
+     */
+    private final Queue<String> orphans = new ConcurrentLinkedQueue<>();
 
     public ZooKeeperDistributedLock(ZooKeeper zooKeeper) {
+        this(new ZooKeeperConnectionManager(zooKeeper));
+    }
+
+    public ZooKeeperDistributedLock(ZooKeeperConnectionManager connectionManager) {
+        this(connectionManager, ROOT_PATH, NODE_PREFIX, false);
+    }
+
+    /**
+     * 读写锁使用，读锁和写锁在同一个父节点下按前缀区分
+     *
+     * @param connectionManager 连接管理
+     * @param rootPath          根节点
+     * @param nodePrefix        锁节点前缀
+     * @param shared            是否为共享锁
+     */
+    ZooKeeperDistributedLock(ZooKeeperConnectionManager connectionManager, String rootPath, String nodePrefix, boolean shared) {
         super();
+        this.connectionManager = connectionManager;
+        this.rootPath = rootPath;
+        this.nodePrefix = nodePrefix;
+        this.shared = shared;
         // 创建分布式锁根节点
         try {
-            if (zooKeeper.exists(ROOT_PATH, false) == null){
-                zooKeeper.create(ROOT_PATH, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            ZooKeeper zooKeeper = connectionManager.getZooKeeper();
+            if (zooKeeper.exists(rootPath, false) == null){
+                zooKeeper.create(rootPath, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
             }
+        } catch (KeeperException.NodeExistsException ignored) {
+            // 其他节点已创建
         } catch (KeeperException | InterruptedException e) {
             LOGGER.error("set zookeeper root node occurred an exception", e);
         }
-        this.zooKeeper = zooKeeper;
+        connectionManager.addListener(this::onStateChanged);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("distributed-lock-scheduler-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    private ZooKeeper zooKeeper() {
+        return connectionManager.getZooKeeper();
     }
 
     @Override
     public boolean lock(String key, long expire, int retryTimes, long sleepMillis) {
-        boolean result = setZookeeperLock(key);
-        // 如果获取锁失败,按照传入的重试次数进行重试
-        while ((!result) && retryTimes-- > 0) {
-            try {
-                LOGGER.debug("lock failed, retrying..." + retryTimes);
-                Thread.sleep(sleepMillis);
-            } catch (InterruptedException e) {
-                LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
-                Thread.currentThread().interrupt();
-                return false;
-            }
-            result = setZookeeperLock(key);
+        return lock(key, expire, retryTimes > Long.MAX_VALUE / Math.max(sleepMillis, 1L) ? Long.MAX_VALUE : retryTimes * sleepMillis);
+    }
+
+    /**
+     * 等待由前一个节点的删除事件驱动，不需要退避
+     */
+    @Override
+    public boolean tryLock(String key, long expire, Duration maxWait, BackoffStrategy backoff) {
+        return lock(key, expire, toMillis(maxWait));
+    }
+
+    private boolean lock(String key, long expire, long maxWait) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle != null) {
+            // 当前线程重入
+            handle.incrementHoldCount();
+            return true;
         }
-        return result;
+        handle = acquire(key, expire, maxWait);
+        if (handle == null) {
+            return false;
+        }
+        lockMap.put(key, handle);
+        return true;
+    }
+
+    @Override
+    public LockHandle acquire(String key, long expire, Duration maxWait) {
+        return acquire(key, expire, toMillis(maxWait));
+    }
+
+    /**
+     * 同步等待异步获取的结果，返回的锁不与当前线程绑定
+     */
+    private LockHandle acquire(String key, long expire, long maxWait) {
+        CompletableFuture<LockHandle> future = lockAsync(key, expire, maxWait);
+        try {
+            // 超时由 lockAsync 的调度任务保证，断线期间不会无限等待
+            return future.get();
+        } catch (InterruptedException e) {
+            LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+            Thread.currentThread().interrupt();
+            // 放弃等待，节点由完成回调删除
+            future.complete(null);
+            return null;
+        } catch (ExecutionException e) {
+            LOGGER.error("set zookeeper lock occurred an exception", e.getCause());
+            return null;
+        }
+    }
+
+    @Override
+    public LockHandle heldLock(String key) {
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (lockMap.isEmpty()) {
+            context.remove();
+        }
+        return handle;
     }
 
     /**
@@ -66,96 +209,354 @@ public class ZooKeeperDistributedLock extends AbstractDistributedLock {
      */
     @Override
     public boolean releaseLock(String key) {
-        try {
-            THREAD_LOCAL.set(THREAD_LOCAL.get() - 1);
-            if (THREAD_LOCAL.get() == 0) {
-                this.zooKeeper.delete(LOCK_PATH.get(), 0);
+        Map<String, LockHandle> lockMap = context.get();
+        LockHandle handle = lockMap.get(key);
+        if (handle == null) {
+            return false;
+        }
+        if (handle.getHoldCount() <= 1) {
+            lockMap.remove(key);
+            if (lockMap.isEmpty()) {
+                context.remove();
             }
-            return true;
-        } catch (InterruptedException | KeeperException e) {
-            LOGGER.error("release zookeeper lock occurred an exception", e);
+        }
+        return release(handle);
+    }
+
+    @Override
+    public boolean release(LockHandle handle) {
+        int remaining = handle.decrementHoldCount();
+        if (remaining != 0) {
+            // 还有重入未退出，或者已经释放过
+            return remaining > 0;
+        }
+        held.remove(handle);
+        if (handle.isLost()) {
             return false;
-        }finally {
-            THREAD_LOCAL.remove();
-            LOCK_PATH.remove();
         }
+        return deleteNodes(Collections.singletonList(handle.getOwner()));
     }
 
     /**
-     * 加锁逻辑
-     * @param key 锁key
-     * @return  加锁结果
+     * 多个节点在一次 multi 请求中删除
      */
-    private boolean setZookeeperLock(String key) {
-        // 新锁需要使用key来设置跟节点
-        try {
-            if (THREAD_LOCAL.get() == null || THREAD_LOCAL.get() == 0) {
-                LOCK_PATH.set(zooKeeper.create(ROOT_PATH + "/" + key + "-", null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+    @Override
+    public boolean releaseAll(Collection<String> keys) {
+        Map<String, LockHandle> lockMap = context.get();
+        List<String> paths = new ArrayList<>(keys.size());
+        boolean result = true;
+        for (String key : new TreeSet<>(keys)) {
+            LockHandle handle = lockMap.get(key);
+            if (handle == null) {
+                result = false;
+                continue;
             }
-        } catch (KeeperException | InterruptedException e) {
-            LOGGER.error("set zookeeper root node occurred an exception", e);
+            if (handle.decrementHoldCount() > 0) {
+                continue;
+            }
+            lockMap.remove(key);
+            held.remove(handle);
+            if (handle.isLost()) {
+                result = false;
+                continue;
+            }
+            paths.add(handle.getOwner());
         }
+        if (lockMap.isEmpty()) {
+            context.remove();
+        }
+        return deleteNodes(paths) && result;
+    }
 
-
-        Integer flag = THREAD_LOCAL.get();
-        if (flag != null && flag > 0) {
-            THREAD_LOCAL.set(flag + 1);
+    /**
+     * 同步删除节点，多个节点使用 multi；断线时记录下来在连接恢复后删除
+     *
+     * @param paths 节点路径
+     * @return 是否全部删除
+     */
+    private boolean deleteNodes(List<String> paths) {
+        if (paths.isEmpty()) {
             return true;
         }
         try {
-            String preNode = getPreNode(LOCK_PATH.get());
-            // 如果该节点没有前一个节点，说明该节点时最小节点，放行执行业务逻辑
-            if (StringUtils.isEmpty(preNode)) {
-                THREAD_LOCAL.set(1);
-                return true;
-            }
-            CountDownLatch countDownLatch = new CountDownLatch(1);
-            if (this.zooKeeper.exists(ROOT_PATH + preNode, event -> countDownLatch.countDown()) == null) {
-                THREAD_LOCAL.set(1);
-                return true;
-            }
-            countDownLatch.await();
-            THREAD_LOCAL.set(1);
+            if (paths.size() == 1) {
+                zooKeeper().delete(paths.get(0), -1);
+            } else {
+                List<Op> ops = new ArrayList<>(paths.size());
+                for (String path : paths) {
+                    ops.add(Op.delete(path, -1));
+                }
+                zooKeeper().multi(ops);
+            }
             return true;
-        } catch (Exception e) {
-            LOGGER.error("set zookeeper root node occurred an exception", e);
+        } catch (KeeperException.ConnectionLossException e) {
+            LOGGER.warn("zookeeper connection loss, lock nodes will be deleted after reconnect: {}", paths);
+            orphans.addAll(paths);
+        } catch (KeeperException.NoNodeException e) {
+            // 会话过期节点已被删除；multi 中任意一个不存在时整体失败，逐个重试
+            if (paths.size() > 1) {
+                for (String path : paths) {
+                    deleteNodes(Collections.singletonList(path));
+                }
+            }
+        } catch (KeeperException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            LOGGER.error("release zookeeper lock occurred an exception", e);
+            orphans.addAll(paths);
         }
         return false;
     }
 
+    @Override
+    public CompletableFuture<LockHandle> lockAsync(String key, long leaseMillis, long waitTimeoutMillis) {
+        CompletableFuture<LockHandle> result = new CompletableFuture<>();
+        // 本次创建的唯一标识，断线后按它找回节点
+        String protectedPrefix = PROTECTED_PREFIX + UUID.randomUUID() + "-" + nodePrefix;
+        AtomicReference<String> node = new AtomicReference<>();
+        // 等待超时后放弃，从创建节点开始计时，包括断线等待的时间
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> result.complete(null), waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((handle, e) -> {
+            timeout.cancel(false);
+            if (handle != null) {
+                held.add(handle);
+            } else if (node.get() != null) {
+                // 超时、失败或放弃等待时删除自己的节点
+                deleteAsync(node.get());
+            }
+        });
+        createAsync(key, protectedPrefix, leaseMillis, node, result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseAsync(LockHandle handle) {
+        int remaining = handle.decrementHoldCount();
+        if (remaining != 0) {
+            return CompletableFuture.completedFuture(remaining > 0);
+        }
+        held.remove(handle);
+        if (handle.isLost()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return deleteAsync(handle.getOwner());
+    }
+
+    /**
+     * 异步创建受保护的顺序节点，断线时在连接恢复后先找回再重试
+     */
+    private void createAsync(String key, String protectedPrefix, long leaseMillis,
+                             AtomicReference<String> node, CompletableFuture<LockHandle> result) {
+        ZooKeeperNodes.createProtectedAsync(connectionManager, parentPath(key), protectedPrefix, result::isDone, (rc, path, ctx, name, stat) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.OK) {
+                created(key, name, stat.getCzxid(), leaseMillis, node, result);
+            } else {
+                result.completeExceptionally(KeeperException.create(code, path));
+            }
+        });
+    }
+
+    private void created(String key, String path, long czxid, long leaseMillis,
+                         AtomicReference<String> node, CompletableFuture<LockHandle> result) {
+        node.set(path);
+        if (result.isDone()) {
+            // 创建完成前已经超时或放弃，完成回调可能没有看到节点
+            if (result.getNow(null) == null) {
+                deleteAsync(path);
+            }
+            return;
+        }
+        LockHandle handle = new LockHandle(key, path, leaseMillis, this);
+        handle.setFencingToken(czxid);
+        checkAsync(handle, result);
+    }
+
     /**
-     * 获取zookeeper根路径下的最小节点
+     * 异步检查是否为最小节点，不是则只监听前一个节点，删除时再次检查
      *
-     * @param lockPath zookeeper锁的根路径
-     * @return 最小节点路径
+     * @param handle 待获取的锁
+     * @param result 获取结果
      */
-    @SuppressWarnings("all")
-    private String getPreNode(String lockPath) {
-        try {
-            // 获取当前节点的序列化号
-            Long curSerial = Long.valueOf(StringUtils.substringAfterLast(lockPath, "-"));
-            // 获取根路径下的所有序列化子节点
-            List<String> nodes = zooKeeper.getChildren(ROOT_PATH, false);
-            // 判空
-            if (CollectionUtils.isEmpty(nodes)) {
-                return null;
-            }
-            // 获取前一个节点
-            Long flag = 0L;
-            String preNode = null;
-            for (String node : nodes) {
-                // 获取每个节点的序列化号
-                Long serial = Long.valueOf(StringUtils.substringAfterLast(node, "-"));
-                if (serial < curSerial && serial > flag) {
-                    flag = serial;
-                    preNode = node;
+    private void checkAsync(LockHandle handle, CompletableFuture<LockHandle> result) {
+        if (result.isDone()) {
+            return;
+        }
+        String parent = parentPath(handle.getKey());
+        zooKeeper().getChildren(parent, false, (rc, path, ctx, children) -> {
+            if (result.isDone()) {
+                return;
+            }
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.CONNECTIONLOSS) {
+                connectionManager.whenConnected(() -> checkAsync(handle, result));
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+            String preNode;
+            try {
+                preNode = findPreNode(handle.getOwner(), children);
+            } catch (KeeperException.NoNodeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (preNode == null) {
+                result.complete(handle);
+                return;
+            }
+            zooKeeper().exists(parent + "/" + preNode, event -> {
+                if (event.getType() != Watcher.Event.EventType.None) {
+                    checkAsync(handle, result);
+                } else if (event.getState() == Watcher.Event.KeeperState.Expired) {
+                    result.completeExceptionally(new KeeperException.SessionExpiredException());
+                }
+                // 断开连接时监听在恢复后自动重新注册
+            }, (existsRc, existsPath, existsCtx, stat) -> {
+                KeeperException.Code existsCode = KeeperException.Code.get(existsRc);
+                if (existsCode == KeeperException.Code.NONODE) {
+                    // 前一个节点已删除
+                    checkAsync(handle, result);
+                } else if (existsCode == KeeperException.Code.CONNECTIONLOSS) {
+                    connectionManager.whenConnected(() -> checkAsync(handle, result));
                 }
+            }, null);
+        }, null);
+    }
+
+    /**
+     * 在子节点中查找需要等待的节点：排他锁为前一个节点，共享锁为前面最后一个其他前缀的节点
+     * 受保护节点的前缀各不相同，按序列号排序
+     *
+     * @param lockPath 当前节点路径
+     * @param nodes    锁名父节点下的子节点
+     * @return 需要等待的节点名，没有时返回 null
+     * @throws KeeperException.NoNodeException 当前节点已不存在（会话过期）
+     */
+    private String findPreNode(String lockPath, List<String> nodes) throws KeeperException.NoNodeException {
+        String node = StringUtils.substringAfterLast(lockPath, "/");
+        Comparator<String> bySequence = Comparator.comparing(ZooKeeperDistributedLock::sequence);
+        nodes.sort(bySequence);
+        int index = Collections.binarySearch(nodes, node, bySequence);
+        if (index < 0) {
+            throw new KeeperException.NoNodeException(lockPath);
+        }
+        if (!shared) {
+            return index == 0 ? null : nodes.get(index - 1);
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            if (!nodePrefix.equals(nodeType(nodes.get(i)))) {
+                return nodes.get(i);
             }
-            return preNode;
-        } catch (KeeperException | InterruptedException e) {
-            LOGGER.error("get zookeeper root node least occurred an exception", e);
         }
         return null;
     }
 
+    /**
+     * 节点的前缀，即序列号前的最后一段，如 _c_uuid-read-0000000001 为 read-
+     */
+    private static String nodeType(String node) {
+        return StringUtils.substringAfterLast(StringUtils.substringBeforeLast(node, "-"), "-") + "-";
+    }
+
+    /**
+     * 顺序节点的序列号，等长补零可以直接按字符串比较
+     */
+    private static String sequence(String node) {
+        return StringUtils.substringAfterLast(node, "-");
+    }
+
+    private String parentPath(String key) {
+        return rootPath + "/" + key;
+    }
+
+    /**
+     * 异步删除节点，断线时记录下来在连接恢复后删除
+     *
+     * @param path 节点路径
+     * @return 是否删除成功
+     */
+    private CompletableFuture<Boolean> deleteAsync(String path) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        zooKeeper().delete(path, -1, (rc, p, ctx) -> {
+            if (rc == KeeperException.Code.CONNECTIONLOSS.intValue()) {
+                orphans.add(path);
+            }
+            result.complete(rc == KeeperException.Code.OK.intValue());
+        }, null);
+        return result;
+    }
+
+    /**
+     * 连接状态变化：同一会话恢复时校验已持有的节点并清理遗留节点，会话过期时所有锁已失去
+     */
+    private void onStateChanged(ZooKeeperConnectionManager.ConnectionState state) {
+        switch (state) {
+            case RECONNECTED:
+                revalidate();
+                flushOrphans();
+                break;
+            case LOST:
+                // 临时节点随会话删除
+                for (LockHandle handle : held) {
+                    handle.markLost();
+                    LOGGER.warn("zookeeper session expired, lock lost: {}", handle.getKey());
+                }
+                held.clear();
+                orphans.clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 校验已持有的节点是否仍然存在
+     */
+    private void revalidate() {
+        for (LockHandle handle : held) {
+            zooKeeper().exists(handle.getOwner(), false, (rc, path, ctx, stat) -> {
+                if (rc == KeeperException.Code.NONODE.intValue()) {
+                    handle.markLost();
+                    held.remove(handle);
+                    LOGGER.warn("zookeeper lock node disappeared after reconnect, lock lost: {}", handle.getKey());
+                }
+            }, null);
+        }
+    }
+
+    /**
+     * 一次 multi 请求删除断线期间遗留的节点，失败时逐个删除
+     */
+    private void flushOrphans() {
+        List<String> paths = new ArrayList<>();
+        String path;
+        while ((path = orphans.poll()) != null) {
+            paths.add(path);
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+        List<Op> ops = new ArrayList<>(paths.size());
+        for (String orphan : paths) {
+            ops.add(Op.delete(orphan, -1));
+        }
+        zooKeeper().multi(ops, (rc, p, ctx, opResults) -> {
+            if (rc != KeeperException.Code.OK.intValue()) {
+                // 部分节点可能已不存在，multi 整体失败，逐个删除
+                for (String orphan : paths) {
+                    deleteAsync(orphan);
+                }
+            }
+        }, null);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
 }
@@ -0,0 +1,53 @@
+package io.github.kamarias.lock;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * 基于ZooKeeper的分布式读写锁
+ * 每个锁名一个父节点，读锁创建 read- 顺序节点，只需等待排在自己前面的最后一个写节点；
+ * 写锁创建 write- 顺序节点，需要等待排在自己前面的任意节点
+ * 读锁和写锁都是 {@link ZooKeeperDistributedLock}，节点异步创建，断线后自动恢复，会话过期时已持有的锁标记为失去
+ * 防护令牌为锁节点的创建事务号 czxid
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/15 14:30
+ */
+public class ZooKeeperDistributedReadWriteLock implements DistributedReadWriteLock, DisposableBean {
+
+    private static final String ROOT_PATH = "/distributedReadWriteLock";
+
+    private static final String READ_PREFIX = "read-";
+
+    private static final String WRITE_PREFIX = "write-";
+
+    private final ZooKeeperDistributedLock readLock;
+
+    private final ZooKeeperDistributedLock writeLock;
+
+    public ZooKeeperDistributedReadWriteLock(ZooKeeper zooKeeper) {
+        this(new ZooKeeperConnectionManager(zooKeeper));
+    }
+
+    public ZooKeeperDistributedReadWriteLock(ZooKeeperConnectionManager connectionManager) {
+        this.readLock = new ZooKeeperDistributedLock(connectionManager, ROOT_PATH, READ_PREFIX, true);
+        this.writeLock = new ZooKeeperDistributedLock(connectionManager, ROOT_PATH, WRITE_PREFIX, false);
+    }
+
+    @Override
+    public DistributedLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public DistributedLock writeLock() {
+        return writeLock;
+    }
+
+    @Override
+    public void destroy() {
+        readLock.destroy();
+        writeLock.destroy();
+    }
+
+}
@@ -0,0 +1,289 @@
+package io.github.kamarias.lock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 基于 ZooKeeper 临时顺序节点的分布式信号量
+ * 排在前 permits 个的节点持有许可，持有者会话失效后节点自动删除，许可随之归还；
+ * 许可的有效期由会话决定，leaseMillis 不生效
+ * 节点的创建和检查全部异步完成，同步获取只在结果上限时等待；连接断开时请求在恢复后继续，
+ * 同一会话恢复后校验已持有的许可，会话过期时已持有的许可全部失效
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/21 11:20
+ */
+public class ZooKeeperDistributedSemaphore implements DistributedSemaphore, DisposableBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperDistributedSemaphore.class);
+
+    private static final String ROOT_PATH = "/distributedSemaphore";
+
+    private static final String PERMIT_PREFIX = "permit-";
+
+    /**
+     * 受保护节点前缀，创建请求的响应因断线丢失时按唯一标识找回已创建的节点
+     */
+    private static final String PROTECTED_PREFIX = "_c_";
+
+    private final ZooKeeperConnectionManager connectionManager;
+
+    /**
+     * 获取许可的超时调度线程
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 本实例持有的全部许可，用于连接恢复后校验
+     */
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 因断线未能删除的节点，连接恢复后删除
+     */
+    private final Queue<String> orphans = new ConcurrentLinkedQueue<>();
+
+    public ZooKeeperDistributedSemaphore(ZooKeeper zooKeeper) {
+        this(new ZooKeeperConnectionManager(zooKeeper));
+    }
+
+    public ZooKeeperDistributedSemaphore(ZooKeeperConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+        // 创建信号量根节点
+        try {
+            ZooKeeper zooKeeper = connectionManager.getZooKeeper();
+            if (zooKeeper.exists(ROOT_PATH, false) == null) {
+                zooKeeper.create(ROOT_PATH, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            }
+        } catch (KeeperException.NodeExistsException ignored) {
+            // 其他节点已创建
+        } catch (KeeperException | InterruptedException e) {
+            LOGGER.error("set zookeeper root node occurred an exception", e);
+        }
+        connectionManager.addListener(this::onStateChanged);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("distributed-semaphore-scheduler-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    private ZooKeeper zooKeeper() {
+        return connectionManager.getZooKeeper();
+    }
+
+    @Override
+    public String acquire(String key, int permits, long leaseMillis, long waitMillis) {
+        String parent = ROOT_PATH + "/" + key;
+        // 本次创建的唯一标识，断线后按它找回节点
+        String protectedPrefix = PROTECTED_PREFIX + UUID.randomUUID() + "-" + PERMIT_PREFIX;
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicReference<String> node = new AtomicReference<>();
+        // 等待超时后放弃，包括断线等待的时间
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> result.complete(null), waitMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((path, e) -> {
+            timeout.cancel(false);
+            if (path != null) {
+                held.add(path);
+            } else if (node.get() != null) {
+                // 超时、失败或放弃等待时删除自己的节点，避免占用排队位置
+                deleteAsync(node.get());
+            }
+        });
+        ZooKeeperNodes.createProtectedAsync(connectionManager, parent, protectedPrefix, result::isDone, (rc, path, ctx, name, stat) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+            node.set(name);
+            if (result.isDone()) {
+                // 创建完成前已经超时或放弃，完成回调可能没有看到节点
+                if (result.getNow(null) == null) {
+                    deleteAsync(name);
+                }
+                return;
+            }
+            checkAsync(parent, name, permits, result);
+        });
+        try {
+            // 超时由调度任务保证，断线期间不会无限等待
+            return result.get();
+        } catch (InterruptedException e) {
+            LOGGER.warn("thread={} is interrupt", Thread.currentThread().getName());
+            Thread.currentThread().interrupt();
+            // 放弃等待，节点由完成回调删除
+            result.complete(null);
+        } catch (ExecutionException e) {
+            LOGGER.error("acquire zookeeper semaphore occurred an exception", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * 异步检查是否排在前 permits 个，不是则监听子节点变化后再次检查
+     *
+     * @param parent   信号量父节点
+     * @param nodePath 当前节点路径
+     * @param permits  许可总数
+     * @param result   获取结果
+     */
+    private void checkAsync(String parent, String nodePath, int permits, CompletableFuture<String> result) {
+        if (result.isDone()) {
+            return;
+        }
+        String node = StringUtils.substringAfterLast(nodePath, "/");
+        // 获取子节点的同时监听变化，两者之间的删除不会丢失
+        zooKeeper().getChildren(parent, event -> {
+            if (event.getType() != Watcher.Event.EventType.None) {
+                checkAsync(parent, nodePath, permits, result);
+            } else if (event.getState() == Watcher.Event.KeeperState.Expired) {
+                result.completeExceptionally(new KeeperException.SessionExpiredException());
+            }
+            // 断开连接时监听在恢复后自动重新注册
+        }, (rc, path, ctx, children) -> {
+            if (result.isDone()) {
+                return;
+            }
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.CONNECTIONLOSS) {
+                connectionManager.whenConnected(() -> checkAsync(parent, nodePath, permits, result));
+                return;
+            }
+            if (code != KeeperException.Code.OK) {
+                result.completeExceptionally(KeeperException.create(code, path));
+                return;
+            }
+            if (!children.contains(node)) {
+                // 会话过期节点已被删除
+                result.completeExceptionally(new KeeperException.NoNodeException(nodePath));
+                return;
+            }
+            if (position(children, node) < permits) {
+                result.complete(nodePath);
+            }
+        }, null);
+    }
+
+    @Override
+    public boolean release(String key, String permitId) {
+        if (!held.remove(permitId)) {
+            // 已经释放过，或会话过期许可已失效
+            return false;
+        }
+        try {
+            zooKeeper().delete(permitId, -1);
+            return true;
+        } catch (KeeperException.NoNodeException e) {
+            // 会话过期节点已被删除
+            return false;
+        } catch (KeeperException.ConnectionLossException e) {
+            LOGGER.warn("zookeeper connection loss, semaphore node will be deleted after reconnect: {}", permitId);
+            orphans.add(permitId);
+            return false;
+        } catch (KeeperException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            LOGGER.error("release zookeeper semaphore occurred an exception", e);
+            orphans.add(permitId);
+            return false;
+        }
+    }
+
+    /**
+     * 当前节点前面排队的节点数量
+     * 受保护节点的前缀各不相同，按序列号比较
+     */
+    private static int position(List<String> children, String node) {
+        String current = sequence(node);
+        int position = 0;
+        for (String child : children) {
+            // 序列号等长补零，可以直接按字符串比较
+            if (sequence(child).compareTo(current) < 0) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    private static String sequence(String node) {
+        return StringUtils.substringAfterLast(node, "-");
+    }
+
+    /**
+     * 异步删除节点，断线时记录下来在连接恢复后删除
+     */
+    private void deleteAsync(String path) {
+        zooKeeper().delete(path, -1, (rc, p, ctx) -> {
+            if (rc == KeeperException.Code.CONNECTIONLOSS.intValue()) {
+                orphans.add(path);
+            }
+        }, null);
+    }
+
+    /**
+     * 连接状态变化：同一会话恢复时校验已持有的许可并清理遗留节点，会话过期时所有许可已失效
+     */
+    private void onStateChanged(ZooKeeperConnectionManager.ConnectionState state) {
+        switch (state) {
+            case RECONNECTED:
+                revalidate();
+                String path;
+                while ((path = orphans.poll()) != null) {
+                    deleteAsync(path);
+                }
+                break;
+            case LOST:
+                // 临时节点随会话删除
+                for (String permit : held) {
+                    LOGGER.warn("zookeeper session expired, semaphore permit lost: {}", permit);
+                }
+                held.clear();
+                orphans.clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 校验已持有的许可节点是否仍然存在
+     */
+    private void revalidate() {
+        for (String permit : held) {
+            zooKeeper().exists(permit, false, (rc, path, ctx, stat) -> {
+                if (rc == KeeperException.Code.NONODE.intValue()) {
+                    held.remove(permit);
+                    LOGGER.warn("zookeeper semaphore node disappeared after reconnect, permit lost: {}", permit);
+                }
+            }, null);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+}
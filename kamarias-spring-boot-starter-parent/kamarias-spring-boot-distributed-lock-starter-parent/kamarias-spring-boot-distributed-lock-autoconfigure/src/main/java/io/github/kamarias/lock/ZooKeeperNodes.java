@@ -0,0 +1,110 @@
+package io.github.kamarias.lock;
+
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * ZooKeeper 锁节点工具
+ * 每个锁名使用一个容器父节点，最后一个子节点删除后由服务端自动清理，不会残留过期锁名
+ * 父节点被清理后序列号从头开始，需要递增的防护令牌时使用节点的创建事务号 czxid
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/22 10:10
+ */
+final class ZooKeeperNodes {
+
+    private ZooKeeperNodes() {
+    }
+
+    /**
+     * 异步创建临时顺序节点，父节点不存在时先异步创建
+     *
+     * @param zooKeeper zookeeper 客户端
+     * @param parent    锁名父节点
+     * @param prefix    子节点前缀
+     * @param callback  创建结果回调，同时返回创建节点的状态
+     */
+    static void createSequentialAsync(ZooKeeper zooKeeper, String parent, String prefix, AsyncCallback.Create2Callback callback) {
+        zooKeeper.create(parent + "/" + prefix, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL, (rc, path, ctx, name, stat) -> {
+            if (rc != KeeperException.Code.NONODE.intValue()) {
+                callback.processResult(rc, path, ctx, name, stat);
+                return;
+            }
+            zooKeeper.create(parent, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.CONTAINER, (parentRc, parentPath, parentCtx, parentName) -> {
+                if (parentRc == KeeperException.Code.OK.intValue() || parentRc == KeeperException.Code.NODEEXISTS.intValue()) {
+                    createSequentialAsync(zooKeeper, parent, prefix, callback);
+                } else {
+                    callback.processResult(parentRc, parentPath, parentCtx, null, null);
+                }
+            }, null);
+        }, null);
+    }
+
+    /**
+     * 异步创建受保护的临时顺序节点，断线时在连接恢复后先按唯一前缀找回已创建的节点，找不到时重新创建
+     *
+     * @param connectionManager 连接管理
+     * @param parent            锁名父节点
+     * @param protectedPrefix   带唯一标识的子节点前缀
+     * @param cancelled         调用方是否已放弃，放弃后不再重试
+     * @param callback          创建或找回成功时返回 OK 和节点状态，其他错误原样返回
+     */
+    static void createProtectedAsync(ZooKeeperConnectionManager connectionManager, String parent, String protectedPrefix,
+                                     BooleanSupplier cancelled, AsyncCallback.Create2Callback callback) {
+        if (cancelled.getAsBoolean()) {
+            return;
+        }
+        createSequentialAsync(connectionManager.getZooKeeper(), parent, protectedPrefix, (rc, path, ctx, name, stat) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.CONNECTIONLOSS || code == KeeperException.Code.SESSIONEXPIRED) {
+                connectionManager.whenConnected(() -> recoverAsync(connectionManager, parent, protectedPrefix, cancelled, callback));
+            } else {
+                callback.processResult(rc, path, ctx, name, stat);
+            }
+        });
+    }
+
+    /**
+     * 断线后按唯一前缀查找已创建的节点
+     */
+    private static void recoverAsync(ZooKeeperConnectionManager connectionManager, String parent, String protectedPrefix,
+                                     BooleanSupplier cancelled, AsyncCallback.Create2Callback callback) {
+        if (cancelled.getAsBoolean()) {
+            return;
+        }
+        ZooKeeper zooKeeper = connectionManager.getZooKeeper();
+        zooKeeper.getChildren(parent, false, (rc, path, ctx, children) -> {
+            KeeperException.Code code = KeeperException.Code.get(rc);
+            if (code == KeeperException.Code.CONNECTIONLOSS) {
+                connectionManager.whenConnected(() -> recoverAsync(connectionManager, parent, protectedPrefix, cancelled, callback));
+                return;
+            }
+            if (code == KeeperException.Code.OK) {
+                for (String child : children) {
+                    if (child.startsWith(protectedPrefix)) {
+                        String nodePath = parent + "/" + child;
+                        // 读取找回节点的状态，创建事务号作为防护令牌
+                        zooKeeper.exists(nodePath, false, (existsRc, existsPath, existsCtx, stat) -> {
+                            KeeperException.Code existsCode = KeeperException.Code.get(existsRc);
+                            if (existsCode == KeeperException.Code.OK) {
+                                callback.processResult(existsRc, existsPath, existsCtx, nodePath, stat);
+                            } else if (existsCode == KeeperException.Code.CONNECTIONLOSS) {
+                                connectionManager.whenConnected(() -> recoverAsync(connectionManager, parent, protectedPrefix, cancelled, callback));
+                            } else {
+                                createProtectedAsync(connectionManager, parent, protectedPrefix, cancelled, callback);
+                            }
+                        }, null);
+                        return;
+                    }
+                }
+            }
+            createProtectedAsync(connectionManager, parent, protectedPrefix, cancelled, callback);
+        }, null);
+    }
+
+}
@@ -0,0 +1,87 @@
+package io.github.kamarias.lock;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 基于 ZooKeeper 临时节点的分片任务成员登记
+ * 每个成员在任务节点下有一个临时节点，会话失效后节点自动删除即视为下线，超时时间由会话决定；
+ * 心跳只在节点不存在（会话重建后）时重新创建
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/29 14:50
+ */
+public class ZooKeeperShardMembership implements ShardMembership {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperShardMembership.class);
+
+    private static final String ROOT_PATH = "/shardMembers";
+
+    private final ZooKeeperConnectionManager connectionManager;
+
+    public ZooKeeperShardMembership(ZooKeeperConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    @Override
+    public List<String> heartbeat(String group, String memberId, long timeoutMillis) {
+        ZooKeeper zooKeeper = connectionManager.getZooKeeper();
+        String parent = ROOT_PATH + "/" + group;
+        try {
+            if (zooKeeper.exists(parent + "/" + memberId, false) == null) {
+                register(zooKeeper, parent, memberId);
+            }
+            return zooKeeper.getChildren(parent, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("shard member heartbeat is interrupted", e);
+        } catch (KeeperException e) {
+            throw new IllegalStateException("shard member heartbeat failed: " + parent, e);
+        }
+    }
+
+    private void register(ZooKeeper zooKeeper, String parent, String memberId) throws KeeperException, InterruptedException {
+        while (true) {
+            try {
+                zooKeeper.create(parent + "/" + memberId, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                LOGGER.info("shard member registered: {}/{}", parent, memberId);
+                return;
+            } catch (KeeperException.NodeExistsException ignored) {
+                // 已登记
+                return;
+            } catch (KeeperException.NoNodeException e) {
+                // 任务节点不存在，或最后一个成员下线后被服务端清理
+                createNode(zooKeeper, ROOT_PATH, CreateMode.PERSISTENT);
+                createNode(zooKeeper, parent, CreateMode.CONTAINER);
+            }
+        }
+    }
+
+    private void createNode(ZooKeeper zooKeeper, String path, CreateMode mode) throws KeeperException, InterruptedException {
+        try {
+            zooKeeper.create(path, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, mode);
+        } catch (KeeperException.NodeExistsException ignored) {
+            // 其他节点已创建
+        }
+    }
+
+    @Override
+    public void leave(String group, String memberId) {
+        try {
+            connectionManager.getZooKeeper().delete(ROOT_PATH + "/" + group + "/" + memberId, -1);
+        } catch (KeeperException.NoNodeException ignored) {
+            // 会话已失效，节点已删除
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (KeeperException e) {
+            LOGGER.warn("delete shard member node occurred an exception", e);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package io.github.kamarias.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 最热锁名统计
+ * 按累计等待时间排序，使用 Space-Saving 算法只保留固定数量的锁名，
+ * 锁名再多内存也不会增长；被挤出的锁名的计数由新锁名继承，排名靠前的结果是准确的上界。
+ * 锁名按哈希分到多个分段，每个分段各自统计、各自加锁，记录时只锁一个分段，挤出时也只扫描一个分段
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/26 10:30
+ */
+public class HotLockKeyTracker {
+
+    /**
+     * 最多的分段数量
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+
+    /**
+     * @param capacity 保留的锁名数量，应明显大于需要展示的数量
+     */
+    public HotLockKeyTracker(int capacity) {
+        int count = Math.max(1, Math.min(MAX_SEGMENTS, capacity / 8));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // 余数分给前面的分段，总数等于 capacity
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * 记录一次获取锁
+     *
+     * @param key       锁名
+     * @param waitNanos 获取耗时
+     */
+    public void record(String key, long waitNanos) {
+        int hash = key.hashCode();
+        segments[Math.floorMod(hash ^ (hash >>> 16), segments.length)].record(key, waitNanos);
+    }
+
+    /**
+     * 累计等待时间最长的锁名
+     *
+     * @param limit 返回数量
+     * @return 按等待时间倒序
+     */
+    public List<HotKey> top(int limit) {
+        List<HotKey> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.copyTo(result);
+        }
+        result.sort(Comparator.comparingLong(HotKey::getWaitNanos).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * 一个分段，保存哈希落在该分段的锁名
+     */
+    private static final class Segment {
+
+        private final int capacity;
+
+        private final Map<String, HotKey> counters;
+
+        Segment(int capacity) {
+            this.capacity = Math.max(1, capacity);
+            this.counters = new HashMap<>(this.capacity * 2);
+        }
+
+        synchronized void record(String key, long waitNanos) {
+            HotKey hotKey = counters.get(key);
+            if (hotKey == null) {
+                if (counters.size() < capacity) {
+                    hotKey = new HotKey(key, 0, 0);
+                } else {
+                    // 替换等待时间最少的锁名，继承它的计数
+                    HotKey min = null;
+                    for (HotKey candidate : counters.values()) {
+                        if (min == null || candidate.waitNanos < min.waitNanos) {
+                            min = candidate;
+                        }
+                    }
+                    counters.remove(min.getKey());
+                    hotKey = new HotKey(key, min.getAcquisitions(), min.getWaitNanos());
+                }
+                counters.put(key, hotKey);
+            }
+            hotKey.acquisitions++;
+            hotKey.waitNanos += waitNanos;
+        }
+
+        synchronized void copyTo(List<HotKey> result) {
+            for (HotKey hotKey : counters.values()) {
+                result.add(new HotKey(hotKey.key, hotKey.acquisitions, hotKey.waitNanos));
+            }
+        }
+    }
+
+    /**
+     * 单个锁名的统计
+     */
+    public static class HotKey {
+
+        private final String key;
+
+        private long acquisitions;
+
+        private long waitNanos;
+
+        HotKey(String key, long acquisitions, long waitNanos) {
+            this.key = key;
+            this.acquisitions = acquisitions;
+            this.waitNanos = waitNanos;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        public long getWaitMillis() {
+            return waitNanos / 1_000_000L;
+        }
+    }
+
+}
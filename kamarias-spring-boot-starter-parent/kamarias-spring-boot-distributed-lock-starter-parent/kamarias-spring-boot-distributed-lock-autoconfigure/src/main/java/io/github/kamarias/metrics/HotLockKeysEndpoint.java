@@ -0,0 +1,31 @@
+package io.github.kamarias.metrics;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.List;
+
+/**
+ * 最热锁名端点 /actuator/hotlocks
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/26 11:40
+ */
+@Endpoint(id = "hotlocks")
+public class HotLockKeysEndpoint {
+
+    private final HotLockKeyTracker hotKeyTracker;
+
+    private final int limit;
+
+    public HotLockKeysEndpoint(HotLockKeyTracker hotKeyTracker, int limit) {
+        this.hotKeyTracker = hotKeyTracker;
+        this.limit = limit;
+    }
+
+    @ReadOperation
+    public List<HotLockKeyTracker.HotKey> hotKeys() {
+        return hotKeyTracker.top(limit);
+    }
+
+}
@@ -0,0 +1,100 @@
+package io.github.kamarias.metrics;
+
+import io.github.kamarias.lock.LockObserver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Micrometer 的锁指标
+ * distributed.lock.acquire 获取耗时、distributed.lock.retries 重试次数（除以获取次数即每次获取的平均重试次数）、
+ * distributed.lock.failures 按失败动作统计的失败次数、distributed.lock.hold 持有时间、
+ * distributed.lock.renewals 续期次数；锁名基数不可控，不作为标签，热点锁名由 {@link HotLockKeyTracker} 统计
+ *
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/26 11:00
+ */
+public class MicrometerLockObserver implements LockObserver {
+
+    private final MeterRegistry registry;
+
+    private final HotLockKeyTracker hotKeyTracker;
+
+    private final Timer acquired;
+
+    private final Timer failed;
+
+    /**
+     * 按失败动作缓存的失败次数
+     */
+    private final ConcurrentHashMap<String, Counter> failures = new ConcurrentHashMap<>();
+
+    private final Counter retries;
+
+    private final Timer hold;
+
+    private final Counter renewed;
+
+    private final Counter renewLost;
+
+    public MicrometerLockObserver(MeterRegistry registry, HotLockKeyTracker hotKeyTracker) {
+        this.registry = registry;
+        this.hotKeyTracker = hotKeyTracker;
+        this.acquired = Timer.builder("distributed.lock.acquire")
+                .description("time to acquire a distributed lock")
+                .tag("result", "acquired")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.failed = Timer.builder("distributed.lock.acquire")
+                .description("time to acquire a distributed lock")
+                .tag("result", "failed")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.retries = Counter.builder("distributed.lock.retries")
+                .description("retries after a failed lock attempt")
+                .register(registry);
+        this.hold = Timer.builder("distributed.lock.hold")
+                .description("time a distributed lock is held")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.renewed = Counter.builder("distributed.lock.renewals")
+                .tag("result", "renewed")
+                .register(registry);
+        this.renewLost = Counter.builder("distributed.lock.renewals")
+                .tag("result", "lost")
+                .register(registry);
+    }
+
+    @Override
+    public void onRetry(String key) {
+        retries.increment();
+    }
+
+    @Override
+    public void onAcquired(String key, long waitNanos) {
+        acquired.record(waitNanos, TimeUnit.NANOSECONDS);
+        hotKeyTracker.record(key, waitNanos);
+    }
+
+    @Override
+    public void onFailed(String key, long waitNanos, String failAction) {
+        failed.record(waitNanos, TimeUnit.NANOSECONDS);
+        failures.computeIfAbsent(failAction, action -> registry.counter("distributed.lock.failures", "action", action)).increment();
+        hotKeyTracker.record(key, waitNanos);
+    }
+
+    @Override
+    public void onReleased(String key, long holdNanos) {
+        hold.record(holdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onRenewed(int renewedCount, int lostCount) {
+        renewed.increment(renewedCount);
+        renewLost.increment(lostCount);
+    }
+
+}
@@ -0,0 +1,310 @@
+package io.github.kamarias.properties;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分布式锁配置
+ * @author wangyuxing@gogpay.cn
+ * @date 2023/6/12 10:20
+ */
+@ConfigurationProperties(prefix = DistributedLockProperties.PREFIX)
+public class DistributedLockProperties {
+
+    public final static String PREFIX = "distributed.lock";
+
+    /**
+     * 是否使用进程内的锁代替 redis，只适合单实例部署或测试
+     */
+    private boolean inMemory = false;
+
+    /**
+     * redis 分布式锁配置
+     */
+    private Redis redis = new Redis();
+
+    /**
+     * 多节点多数派锁配置
+     */
+    private Redlock redlock = new Redlock();
+
+    /**
+     * 锁指标配置
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 集群定时任务主节点选举配置
+     */
+    private Leader leader = new Leader();
+
+    /**
+     * 分片任务配置
+     */
+    private Shard shard = new Shard();
+
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    public Redis getRedis() {
+        return redis;
+    }
+
+    public void setRedis(Redis redis) {
+        this.redis = redis;
+    }
+
+    public Redlock getRedlock() {
+        return redlock;
+    }
+
+    public void setRedlock(Redlock redlock) {
+        this.redlock = redlock;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Leader getLeader() {
+        return leader;
+    }
+
+    public void setLeader(Leader leader) {
+        this.leader = leader;
+    }
+
+    public Shard getShard() {
+        return shard;
+    }
+
+    public void setShard(Shard shard) {
+        this.shard = shard;
+    }
+
+    public static class Redis {
+
+        /**
+         * 是否开启发布订阅唤醒模式
+         * 开启后释放锁时会发布通知，等待中的线程收到通知后立即重试，不再按固定间隔轮询
+         */
+        private boolean pubSub = false;
+
+        /**
+         * 锁释放通知的频道名称
+         */
+        private String releaseChannel = "distributedLock:release";
+
+        /**
+         * 是否开启本地锁合并
+         * 开启后同一节点内竞争同一把锁的线程先在本地排队，持锁线程释放时直接把锁交给本地下一个等待者
+         */
+        private boolean localCoalescing = false;
+
+        /**
+         * 连续本地移交的最大次数，达到后必须远程释放一次，让其他节点有机会获取
+         */
+        private int maxLocalHandoffs = 16;
+
+        /**
+         * 是否生成防护令牌，使用 {@code @FencingToken} 或 LockHandle#getFencingToken 时开启
+         * 开启后每个锁名在 redis 中保留一个不过期的计数器，锁名数量无上限（如按订单号加锁）时不应开启
+         */
+        private boolean fencingTokens = false;
+
+        public boolean isPubSub() {
+            return pubSub;
+        }
+
+        public void setPubSub(boolean pubSub) {
+            this.pubSub = pubSub;
+        }
+
+        public String getReleaseChannel() {
+            return releaseChannel;
+        }
+
+        public void setReleaseChannel(String releaseChannel) {
+            this.releaseChannel = releaseChannel;
+        }
+
+        public boolean isLocalCoalescing() {
+            return localCoalescing;
+        }
+
+        public void setLocalCoalescing(boolean localCoalescing) {
+            this.localCoalescing = localCoalescing;
+        }
+
+        public int getMaxLocalHandoffs() {
+            return maxLocalHandoffs;
+        }
+
+        public void setMaxLocalHandoffs(int maxLocalHandoffs) {
+            this.maxLocalHandoffs = maxLocalHandoffs;
+        }
+
+        public boolean isFencingTokens() {
+            return fencingTokens;
+        }
+
+        public void setFencingTokens(boolean fencingTokens) {
+            this.fencingTokens = fencingTokens;
+        }
+    }
+
+    public static class Redlock {
+
+        /**
+         * 是否使用多个独立 Redis 节点的多数派锁代替单节点锁
+         */
+        private boolean enabled = false;
+
+        /**
+         * 独立的 Redis 节点地址，格式 redis[s]://[[username:]password@]host[:port][/database]，rediss 使用 TLS，建议奇数个
+         */
+        private List<String> nodes = new ArrayList<>();
+
+        /**
+         * 单个节点的命令超时时间，应远小于锁的过期时间，慢节点超时后不再等待
+         */
+        private Duration nodeTimeout = Duration.ofMillis(50);
+
+        /**
+         * 时钟漂移系数，锁的有效期按过期时间的该比例扣除
+         */
+        private double clockDriftFactor = 0.01;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(List<String> nodes) {
+            this.nodes = nodes;
+        }
+
+        public Duration getNodeTimeout() {
+            return nodeTimeout;
+        }
+
+        public void setNodeTimeout(Duration nodeTimeout) {
+            this.nodeTimeout = nodeTimeout;
+        }
+
+        public double getClockDriftFactor() {
+            return clockDriftFactor;
+        }
+
+        public void setClockDriftFactor(double clockDriftFactor) {
+            this.clockDriftFactor = clockDriftFactor;
+        }
+    }
+
+    public static class Metrics {
+
+        /**
+         * 热点锁名统计保留的锁名数量
+         */
+        private int hotKeyCapacity = 128;
+
+        /**
+         * 热点锁名端点返回的数量
+         */
+        private int hotKeyLimit = 20;
+
+        public int getHotKeyCapacity() {
+            return hotKeyCapacity;
+        }
+
+        public void setHotKeyCapacity(int hotKeyCapacity) {
+            this.hotKeyCapacity = hotKeyCapacity;
+        }
+
+        public int getHotKeyLimit() {
+            return hotKeyLimit;
+        }
+
+        public void setHotKeyLimit(int hotKeyLimit) {
+            this.hotKeyLimit = hotKeyLimit;
+        }
+    }
+
+    public static class Leader {
+
+        /**
+         * 选举锁名前缀
+         */
+        private String keyPrefix = "leader:";
+
+        /**
+         * 非主节点的竞选间隔，也是主节点失去锁后被发现的最长延迟
+         */
+        private Duration campaignInterval = Duration.ofSeconds(5);
+
+        public String getKeyPrefix() {
+            return keyPrefix;
+        }
+
+        public void setKeyPrefix(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        public Duration getCampaignInterval() {
+            return campaignInterval;
+        }
+
+        public void setCampaignInterval(Duration campaignInterval) {
+            this.campaignInterval = campaignInterval;
+        }
+    }
+
+    public static class Shard {
+
+        /**
+         * 成员心跳间隔，也是成员变化后重新分配分片的最长延迟
+         */
+        private Duration heartbeatInterval = Duration.ofSeconds(3);
+
+        /**
+         * 超过该时间没有心跳的成员视为下线，zookeeper 由会话超时决定
+         */
+        private Duration memberTimeout = Duration.ofSeconds(15);
+
+        public Duration getHeartbeatInterval() {
+            return heartbeatInterval;
+        }
+
+        public void setHeartbeatInterval(Duration heartbeatInterval) {
+            this.heartbeatInterval = heartbeatInterval;
+        }
+
+        public Duration getMemberTimeout() {
+            return memberTimeout;
+        }
+
+        public void setMemberTimeout(Duration memberTimeout) {
+            this.memberTimeout = memberTimeout;
+        }
+    }
+
+}